@@ -5,20 +5,30 @@ import org.bukkit.Color;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.little100.constructionWand.action.AsyncPlacementPlanner;
+import org.little100.constructionWand.action.PlacementScheduler;
 import org.little100.constructionWand.action.WandAction;
 import org.little100.constructionWand.command.WandCommand;
 import org.little100.constructionWand.enchant.EnchantmentManager;
 import org.little100.constructionWand.hook.MagicBlockHook;
 import org.little100.constructionWand.i18n.I18nManager;
 import org.little100.constructionWand.listener.ItemProtectionListener;
+import org.little100.constructionWand.listener.PlanCacheListener;
+import org.little100.constructionWand.listener.ProtectionCacheListener;
 import org.little100.constructionWand.listener.WandListener;
+import org.little100.constructionWand.preview.DisplayEntityPreview;
+import org.little100.constructionWand.preview.PreviewGeometry;
+import org.little100.constructionWand.preview.PreviewLod;
 import org.little100.constructionWand.preview.PreviewManager;
 import org.little100.constructionWand.protection.ProtectionChecker;
 import org.little100.constructionWand.recipe.WandRecipeManager;
+import org.little100.constructionWand.utils.MaterialTable;
 import org.little100.constructionWand.utils.VersionHelper;
 import org.little100.constructionWand.wand.WandConfigManager;
 import org.little100.constructionWand.wand.WandItemManager;
 
+import java.util.Set;
+
 public final class ConstructionWand extends JavaPlugin {
 
     private static ConstructionWand instance;
@@ -30,7 +40,10 @@ public final class ConstructionWand extends JavaPlugin {
     private ProtectionChecker protectionChecker;
     private PreviewManager previewManager;
     private WandAction wandAction;
+    private AsyncPlacementPlanner asyncPlanner;
+    private PlacementScheduler placementScheduler;
     private EnchantmentManager enchantmentManager;
+    private WandListener wandListener;
 
     @Override
     public void onEnable() {
@@ -55,12 +68,18 @@ public final class ConstructionWand extends JavaPlugin {
 
         registerCommands();
 
+        wandListener.trackOnlinePlayers();
+
         getLogger().info("Construction Wand 已成功启用！");
     }
 
     @Override
     public void onDisable() {
 
+        if (placementScheduler != null) {
+            placementScheduler.shutdown();
+        }
+
         if (previewManager != null) {
             previewManager.clearAllPreviews();
         }
@@ -69,10 +88,17 @@ public final class ConstructionWand extends JavaPlugin {
             recipeManager.unregisterAllRecipes();
         }
 
+        if (asyncPlanner != null) {
+            asyncPlanner.shutdown();
+        }
+
         getLogger().info("Construction Wand 已禁用！");
     }
 
     private void initManagers() {
+        // 预先构建材质分类表
+        MaterialTable.init();
+
         // 首先初始化配置管理器
         wandConfigManager = new WandConfigManager(this);
         
@@ -82,9 +108,17 @@ public final class ConstructionWand extends JavaPlugin {
         previewManager = new PreviewManager(this);
         wandAction = new WandAction(wandItemManager, protectionChecker);
         enchantmentManager = new EnchantmentManager(this, i18nManager);
+        asyncPlanner = new AsyncPlacementPlanner();
+        asyncPlanner.loadConfig(getConfig());
 
         wandAction.setEnchantmentManager(enchantmentManager);
         wandAction.setWandConfigManager(wandConfigManager);
+        wandAction.setAsyncPlanner(asyncPlanner);
+        wandAction.setPlugin(this);
+        loadIgnoredEntities(getConfig());
+
+        placementScheduler = new PlacementScheduler(this, wandAction, i18nManager);
+        placementScheduler.loadConfig(getConfig());
 
         enchantmentManager.setWandItemManager(wandItemManager);
 
@@ -115,12 +149,31 @@ public final class ConstructionWand extends JavaPlugin {
         }
     }
 
+    private void loadIgnoredEntities(FileConfiguration config) {
+        Set<String> unknown = wandAction.setExtraIgnoredEntities(
+                config.getStringList("placement.ignored-entities"));
+        if (!unknown.isEmpty()) {
+            getLogger().warning("无法识别的实体类型(placement.ignored-entities): " + String.join(", ", unknown));
+        }
+    }
+
     private void registerListeners() {
 
-        WandListener wandListener = new WandListener(wandItemManager, wandAction, previewManager, i18nManager);
+        wandListener = new WandListener(wandItemManager, wandAction, previewManager, i18nManager);
+        wandListener.setPlacementScheduler(placementScheduler);
         wandListener.setPlugin(this);
         getServer().getPluginManager().registerEvents(wandListener, this);
 
+        PlanCacheListener planCacheListener = new PlanCacheListener(wandAction.getPlanCache());
+        getServer().getPluginManager().registerEvents(planCacheListener, this);
+
+        ProtectionCacheListener protectionCacheListener = new ProtectionCacheListener(protectionChecker.getCache());
+        getServer().getPluginManager().registerEvents(protectionCacheListener, this);
+        int claimEvents = protectionCacheListener.registerClaimEvents(this);
+        if (claimEvents > 0) {
+            getLogger().info("已监听 " + claimEvents + " 个领地变化事件用于刷新保护缓存");
+        }
+
         ItemProtectionListener itemProtectionListener = new ItemProtectionListener(wandItemManager, i18nManager);
         itemProtectionListener.setEnchantmentManager(enchantmentManager);
         getServer().getPluginManager().registerEvents(itemProtectionListener, this);
@@ -147,6 +200,31 @@ public final class ConstructionWand extends JavaPlugin {
             String previewMode = config.getString("preview.mode", "full");
             previewManager.setPreviewMode(previewMode.equalsIgnoreCase("outline") ? PreviewManager.PreviewMode.OUTLINE
                     : PreviewManager.PreviewMode.FULL);
+
+            double outlineStep = config.getDouble("preview.outline-step", PreviewGeometry.DEFAULT_OUTLINE_STEP);
+            previewManager.setOutlineStep(outlineStep > 0 ? outlineStep : PreviewGeometry.DEFAULT_OUTLINE_STEP);
+
+            String backend = config.getString("preview.backend", "particles");
+            PreviewManager.PreviewBackend previewBackend = PreviewManager.PreviewBackend.PARTICLES;
+            if (backend.equalsIgnoreCase("ghost-blocks")) {
+                previewBackend = PreviewManager.PreviewBackend.GHOST_BLOCKS;
+            } else if (backend.equalsIgnoreCase("display-entities")) {
+                if (DisplayEntityPreview.isSupported()) {
+                    previewBackend = PreviewManager.PreviewBackend.DISPLAY_ENTITIES;
+                } else {
+                    getLogger().warning("display-entities 预览需要 1.19.4+, 使用 particles");
+                }
+            }
+            previewManager.setBackend(previewBackend);
+            previewManager.setMaxDisplayEntities(
+                    config.getInt("preview.display-max-entities", DisplayEntityPreview.DEFAULT_MAX_ENTITIES));
+
+            previewManager.setLod(new PreviewLod(
+                    config.getBoolean("preview.lod.enabled", true),
+                    config.getDouble("preview.lod.full-radius", 4),
+                    config.getDouble("preview.lod.corners-radius", 10),
+                    config.getInt("preview.lod.max-particles-per-second", 4000),
+                    config.getInt("preview.lod.max-server-particles-per-second", 40000)));
         }
 
         if (protectionChecker != null) {
@@ -154,6 +232,33 @@ public final class ConstructionWand extends JavaPlugin {
             boolean useWorldGuard = config.getBoolean("protection.use-worldguard", true);
             protectionChecker.setUseEventCheck(useEventCheck);
             protectionChecker.setUseWorldGuard(useWorldGuard);
+            protectionChecker.setUseCache(config.getBoolean("protection.cache.enabled", true));
+            protectionChecker.setCacheTtlSeconds(config.getInt("protection.cache.ttl-seconds", 30));
+            protectionChecker.setBypassCacheOnPlace(config.getBoolean("protection.cache.bypass-on-place", true));
+
+            String previewCheck = config.getString("protection.preview-check", "cached");
+            try {
+                protectionChecker.setPreviewCheck(ProtectionChecker.PreviewCheck.valueOf(previewCheck.toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                getLogger().warning("无效的 protection.preview-check: " + previewCheck + ", 使用 cached");
+                protectionChecker.setPreviewCheck(ProtectionChecker.PreviewCheck.CACHED);
+            }
+        }
+
+        if (asyncPlanner != null) {
+            asyncPlanner.loadConfig(config);
+        }
+
+        if (wandAction != null) {
+            loadIgnoredEntities(config);
+        }
+
+        if (placementScheduler != null) {
+            placementScheduler.loadConfig(config);
+        }
+
+        if (wandListener != null) {
+            wandListener.loadPreviewConfig();
         }
 
         // 重载手杖配置
@@ -242,6 +347,10 @@ public final class ConstructionWand extends JavaPlugin {
         return wandAction;
     }
 
+    public WandListener getWandListener() {
+        return wandListener;
+    }
+
     public I18nManager getI18nManager() {
         return i18nManager;
     }
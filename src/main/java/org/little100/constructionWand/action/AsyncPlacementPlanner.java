@@ -0,0 +1,83 @@
+package org.little100.constructionWand.action;
+
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 异步规划配置和工作线程池
+ * 大范围的手杖(钻石、下界合金、无限)在区块快照上于工作线程中完成广度优先搜索,
+ * 结果回到拥有线程后再做一次轻量的复核
+ */
+public class AsyncPlacementPlanner {
+
+    private ExecutorService executor;
+    private int threads = 2;
+    private boolean enabled = true;
+    private int minBlocks = 64;
+
+    /**
+     * 从配置加载异步规划设置
+     */
+    public void loadConfig(FileConfiguration config) {
+        enabled = config.getBoolean("planner.async.enabled", true);
+        minBlocks = Math.max(1, config.getInt("planner.async.min-blocks", 64));
+
+        int newThreads = Math.max(1, config.getInt("planner.async.threads", 2));
+        if (executor != null && newThreads != threads) {
+            executor.shutdown();
+            executor = null;
+        }
+        threads = newThreads;
+    }
+
+    /**
+     * 检查指定最大方块数的规划是否应走异步流程
+     */
+    public boolean shouldUseAsync(int maxBlocks) {
+        return enabled && maxBlocks >= minBlocks;
+    }
+
+    /**
+     * 首次捕获快照的半径(方块): 开阔平面上 n 个方块大约占据半径 sqrt(n / 2) 的菱形,
+     * 更远的区块(细长的墙顶、横梁)在规划读取到时再捕获
+     */
+    public int getSnapshotRadius(int maxBlocks) {
+        int radius = (int) Math.ceil(Math.sqrt(maxBlocks / 2.0)) + 1;
+        return Math.max(0, Math.min(maxBlocks - 1, radius));
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, getExecutor());
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threads, new PlannerThreadFactory());
+        }
+        return executor;
+    }
+
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private static class PlannerThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ConstructionWand-Planner-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
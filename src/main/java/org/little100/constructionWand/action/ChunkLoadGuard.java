@@ -0,0 +1,77 @@
+package org.little100.constructionWand.action;
+
+import org.bukkit.World;
+import org.little100.constructionWand.utils.BlockPos;
+import org.little100.constructionWand.utils.LongHashSet;
+
+/**
+ * 区块加载检查
+ * 规划时在读取方块之前先检查所在区块是否已加载, 未加载的位置直接视为不可放置, 不会在主线程上同步加载区块。
+ * 相邻位置通常在同一个区块内, 因此只在跨越区块边界时重新查询。
+ * 同时记录因区块未加载而被拒绝的边界位置(填充在这些位置停下), 不是其后丢失的位置总数。
+ * 实例只在一次规划中使用, 不是线程安全的。
+ */
+public final class ChunkLoadGuard {
+
+    /**
+     * 判断区块是否可以读取
+     */
+    @FunctionalInterface
+    public interface ChunkTest {
+        boolean isLoaded(int chunkX, int chunkZ);
+    }
+
+    private final ChunkTest test;
+    private final LongHashSet cutOff = new LongHashSet(16);
+
+    private int lastChunkX;
+    private int lastChunkZ;
+    private boolean lastLoaded;
+    private boolean hasLast;
+
+    public ChunkLoadGuard(ChunkTest test) {
+        this.test = test;
+    }
+
+    /**
+     * 使用世界中已加载的区块
+     */
+    public static ChunkLoadGuard of(World world) {
+        return new ChunkLoadGuard(world::isChunkLoaded);
+    }
+
+    /**
+     * 方块坐标所在的区块是否已加载
+     */
+    public boolean isLoaded(int blockX, int blockZ) {
+        int chunkX = blockX >> 4;
+        int chunkZ = blockZ >> 4;
+        if (!hasLast || chunkX != lastChunkX || chunkZ != lastChunkZ) {
+            lastChunkX = chunkX;
+            lastChunkZ = chunkZ;
+            lastLoaded = test.isLoaded(chunkX, chunkZ);
+            hasLast = true;
+        }
+        return lastLoaded;
+    }
+
+    /**
+     * 包装位置检查: 目标或支撑方块所在区块未加载时直接返回 false 并记录, 否则交给原检查
+     */
+    public PlanarPlanner.CellTest wrap(int supportDx, int supportDz, PlanarPlanner.CellTest cellTest) {
+        return (x, y, z) -> {
+            if (!isLoaded(x, z) || !isLoaded(x + supportDx, z + supportDz)) {
+                cutOff.add(BlockPos.pack(x, y, z));
+                return false;
+            }
+            return cellTest.test(x, y, z);
+        };
+    }
+
+    /**
+     * 因区块未加载而被拒绝的边界位置数量(去重), 其后无法到达的位置不计入
+     */
+    public int getCutOffCells() {
+        return cutOff.size();
+    }
+}
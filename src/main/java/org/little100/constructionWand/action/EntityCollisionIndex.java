@@ -0,0 +1,101 @@
+package org.little100.constructionWand.action;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.util.BoundingBox;
+import org.little100.constructionWand.utils.BlockPos;
+import org.little100.constructionWand.utils.LongHashSet;
+
+import java.util.function.Predicate;
+
+/**
+ * 实体碰撞索引
+ * 对整个计划的包围盒只查询一次实体, 然后把每个阻挡实体的碰撞箱展开为它所占据的方块坐标,
+ * 之后每个位置的检查只是一次哈希查找
+ */
+public class EntityCollisionIndex {
+
+    private static final EntityCollisionIndex EMPTY = new EntityCollisionIndex(new LongHashSet(4));
+
+    private final LongHashSet blockedCells;
+
+    private EntityCollisionIndex(LongHashSet blockedCells) {
+        this.blockedCells = blockedCells;
+    }
+
+    /**
+     * 为放置计划建立索引
+     * @param blocking 判断实体是否会阻挡放置
+     */
+    public static EntityCollisionIndex build(PlacementPlan plan, Predicate<Entity> blocking) {
+        if (plan == null || plan.isEmpty() || plan.getWorld() == null) {
+            return EMPTY;
+        }
+        return build(plan.getWorld(), plan.getMinX(), plan.getMinY(), plan.getMinZ(),
+                plan.getMaxX(), plan.getMaxY(), plan.getMaxZ(), blocking);
+    }
+
+    /**
+     * 为方块范围 [min, max] 建立索引
+     */
+    public static EntityCollisionIndex build(World world, int minX, int minY, int minZ, int maxX, int maxY, int maxZ,
+            Predicate<Entity> blocking) {
+        BoundingBox area = new BoundingBox(minX, minY, minZ, maxX + 1, maxY + 1, maxZ + 1);
+
+        LongHashSet blockedCells = null;
+        for (Entity entity : world.getNearbyEntities(area)) {
+            if (!blocking.test(entity)) {
+                continue;
+            }
+
+            if (blockedCells == null) {
+                blockedCells = new LongHashSet(16);
+            }
+            addCells(blockedCells, entity.getBoundingBox(), minX, minY, minZ, maxX, maxY, maxZ);
+        }
+
+        return blockedCells == null ? EMPTY : new EntityCollisionIndex(blockedCells);
+    }
+
+    /**
+     * 把碰撞箱占据的方块加入集合
+     * 与 BoundingBox#overlaps 一致使用严格相交: 方块 [x, x + 1) 与 (min, max) 相交当且仅当 x < max 且 x + 1 > min
+     */
+    private static void addCells(LongHashSet cells, BoundingBox box, int minX, int minY, int minZ,
+            int maxX, int maxY, int maxZ) {
+        int fromX = Math.max(minX, (int) Math.floor(box.getMinX()));
+        int fromY = Math.max(minY, (int) Math.floor(box.getMinY()));
+        int fromZ = Math.max(minZ, (int) Math.floor(box.getMinZ()));
+        int toX = Math.min(maxX, (int) Math.ceil(box.getMaxX()) - 1);
+        int toY = Math.min(maxY, (int) Math.ceil(box.getMaxY()) - 1);
+        int toZ = Math.min(maxZ, (int) Math.ceil(box.getMaxZ()) - 1);
+
+        for (int x = fromX; x <= toX; x++) {
+            for (int y = fromY; y <= toY; y++) {
+                for (int z = fromZ; z <= toZ; z++) {
+                    cells.add(BlockPos.pack(x, y, z));
+                }
+            }
+        }
+    }
+
+    /**
+     * 不包含任何实体的索引
+     */
+    public static EntityCollisionIndex empty() {
+        return EMPTY;
+    }
+
+    public boolean isEmpty() {
+        return blockedCells.isEmpty();
+    }
+
+    public boolean isBlocked(int x, int y, int z) {
+        return !blockedCells.isEmpty() && blockedCells.contains(BlockPos.pack(x, y, z));
+    }
+
+    public boolean isBlocked(Location location) {
+        return isBlocked(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+}
@@ -0,0 +1,134 @@
+package org.little100.constructionWand.action;
+
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.LivingEntity;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 实体碰撞忽略表
+ * 启动时把忽略的实体名称(包括各版本的别名和配置中追加的类型)解析为 EnumSet,
+ * 只有活的生物会阻挡放置, 每次判断只是一次位测试
+ */
+public class EntityIgnoreTable {
+
+    /**
+     * 默认忽略的实体, 同时列出新旧版本的名称, 当前版本不存在的名称会被跳过
+     */
+    private static final String[] DEFAULT_IGNORED = {
+            // 掉落物(旧版: DROPPED_ITEM, 新版: ITEM)
+            "DROPPED_ITEM", "ITEM",
+            // 经验球
+            "EXPERIENCE_ORB",
+            // 箭和投射物
+            "ARROW", "SPECTRAL_ARROW", "TRIDENT", "SNOWBALL", "EGG", "ENDER_PEARL",
+            "FIREBALL", "SMALL_FIREBALL", "DRAGON_FIREBALL", "WITHER_SKULL", "SHULKER_BULLET", "LLAMA_SPIT",
+            // 烟花(旧版: FIREWORK)
+            "FIREWORK_ROCKET", "FIREWORK",
+            // 钓鱼浮标(旧版: FISHING_HOOK, 新版: FISHING_BOBBER)
+            "FISHING_BOBBER", "FISHING_HOOK",
+            // 末影之眼(旧版: ENDER_SIGNAL)
+            "EYE_OF_ENDER", "ENDER_SIGNAL",
+            // 药水
+            "POTION", "SPLASH_POTION", "THROWN_EXP_BOTTLE",
+            // 闪电(旧版: LIGHTNING)
+            "LIGHTNING_BOLT", "LIGHTNING",
+            // 区域效果云
+            "AREA_EFFECT_CLOUD",
+            // 末影水晶(旧版: ENDER_CRYSTAL)
+            "END_CRYSTAL", "ENDER_CRYSTAL",
+            // 画和物品展示框
+            "PAINTING", "ITEM_FRAME", "GLOW_ITEM_FRAME",
+            // 拴绳结(旧版: LEASH_HITCH)
+            "LEASH_KNOT", "LEASH_HITCH",
+            // 标记实体
+            "MARKER",
+            // 展示实体
+            "BLOCK_DISPLAY", "ITEM_DISPLAY", "TEXT_DISPLAY", "INTERACTION"
+    };
+
+    private final Set<EntityType> ignored = EnumSet.noneOf(EntityType.class);
+    private final Set<EntityType> blocking = EnumSet.noneOf(EntityType.class);
+    // 无法从类型得知是否为生物的实体, 运行时再检查
+    private final Set<EntityType> unresolved = EnumSet.noneOf(EntityType.class);
+    private final Set<String> unknownNames;
+
+    public EntityIgnoreTable() {
+        this(Collections.emptyList());
+    }
+
+    /**
+     * @param extraIgnored 配置中追加忽略的实体类型名称
+     */
+    public EntityIgnoreTable(Collection<String> extraIgnored) {
+        for (String name : DEFAULT_IGNORED) {
+            EntityType type = resolve(name);
+            if (type != null) {
+                ignored.add(type);
+            }
+        }
+
+        Set<String> unknown = new LinkedHashSet<>();
+        for (String name : extraIgnored) {
+            EntityType type = resolve(name);
+            if (type != null) {
+                ignored.add(type);
+            } else {
+                unknown.add(name);
+            }
+        }
+        unknownNames = Collections.unmodifiableSet(unknown);
+
+        for (EntityType type : EntityType.values()) {
+            if (ignored.contains(type)) {
+                continue;
+            }
+
+            Class<? extends Entity> entityClass = type.getEntityClass();
+            if (entityClass == null) {
+                unresolved.add(type);
+            } else if (LivingEntity.class.isAssignableFrom(entityClass)) {
+                blocking.add(type);
+            }
+        }
+    }
+
+    private static EntityType resolve(String name) {
+        if (name == null) {
+            return null;
+        }
+        try {
+            return EntityType.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 检查实体是否会阻挡放置
+     */
+    public boolean isBlocking(Entity entity) {
+        if (entity == null) {
+            return false;
+        }
+
+        EntityType type = entity.getType();
+        if (blocking.contains(type)) {
+            return true;
+        }
+        return unresolved.contains(type) && entity instanceof LivingEntity;
+    }
+
+    /**
+     * 配置中无法识别的实体名称
+     */
+    public Set<String> getUnknownNames() {
+        return unknownNames;
+    }
+}
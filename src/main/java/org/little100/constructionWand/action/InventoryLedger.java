@@ -0,0 +1,234 @@
+package org.little100.constructionWand.action;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+import org.little100.constructionWand.hook.MagicBlockHook;
+
+/**
+ * 背包材料账本
+ * 创建时扫描一次背包, 记录普通方块和 MagicBlock 的可用数量, 放置过程中只在内存中记账,
+ * 最后通过 {@link #commit()} 一次性写回背包。
+ * 必须在玩家所在线程上使用, 且在创建和提交之间不应有其他代码修改该玩家的背包
+ */
+public class InventoryLedger {
+
+    private final PlayerInventory inventory;
+    private final Material material;
+    private final boolean magicFirst;
+
+    private int[] normalSlots = new int[8];
+    private int normalSlotCount;
+    private int[] magicSlots = new int[4];
+    private int magicSlotCount;
+
+    private long normalAvailable;
+    private long magicAvailable;
+    private boolean infiniteMagic;
+    private long debited;
+
+    /**
+     * @param useMagicBlock 是否可以使用 MagicBlock(已启用且玩家有权限)
+     * @param magicFirst 是否优先消耗 MagicBlock
+     */
+    public InventoryLedger(PlayerInventory inventory, Material material, boolean useMagicBlock, boolean magicFirst) {
+        this.inventory = inventory;
+        this.material = material;
+        this.magicFirst = magicFirst;
+        scan(useMagicBlock);
+    }
+
+    private void scan(boolean useMagicBlock) {
+        boolean magicEnabled = MagicBlockHook.isEnabled();
+        ItemStack[] contents = inventory.getContents();
+
+        for (int i = 0; i < contents.length; i++) {
+            ItemStack item = contents[i];
+            if (item == null || item.getType() != material) {
+                continue;
+            }
+
+            if (magicEnabled && MagicBlockHook.isMagicBlock(item)) {
+                // 没有权限时 MagicBlock 既不计数也不消耗
+                if (!useMagicBlock) {
+                    continue;
+                }
+
+                int useTimes = MagicBlockHook.getUseTimes(item);
+                if (useTimes == -1) {
+                    infiniteMagic = true;
+                } else if (useTimes > 0) {
+                    magicAvailable += useTimes;
+                } else {
+                    continue;
+                }
+                magicSlots = append(magicSlots, magicSlotCount++, i);
+            } else {
+                normalAvailable += item.getAmount();
+                normalSlots = append(normalSlots, normalSlotCount++, i);
+            }
+        }
+    }
+
+    private static int[] append(int[] array, int index, int value) {
+        if (index == array.length) {
+            int[] grown = new int[array.length << 1];
+            System.arraycopy(array, 0, grown, 0, index);
+            array = grown;
+        }
+        array[index] = value;
+        return array;
+    }
+
+    /**
+     * 剩余可用数量(无限返回 Integer.MAX_VALUE)
+     */
+    public int available() {
+        if (infiniteMagic) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, normalAvailable + magicAvailable - debited);
+    }
+
+    public boolean hasAvailable() {
+        return available() > 0;
+    }
+
+    /**
+     * 记账扣除
+     * @return 实际记账的数量
+     */
+    public int debit(int amount) {
+        int actual = Math.min(amount, available());
+        if (actual > 0) {
+            debited += actual;
+        }
+        return Math.max(actual, 0);
+    }
+
+    /**
+     * 立即从背包扣除材料并存入预留, 优先使用普通方块, 不足时才使用 MagicBlock
+     * @return 实际预留的数量
+     */
+    public int reserve(int amount, Reservation reservation) {
+        int actual = Math.min(amount, available());
+        if (actual <= 0) {
+            return 0;
+        }
+
+        long remaining = consumeNormal(actual);
+        int normal = (int) (actual - remaining);
+        consumeMagic(remaining);
+        reservation.normal += normal;
+        reservation.magic += actual - normal;
+        return actual;
+    }
+
+    /**
+     * 把记账的扣除一次性写回背包, 之后账本可以继续使用
+     */
+    public void commit() {
+        if (debited <= 0) {
+            return;
+        }
+
+        long remaining = debited;
+        debited = 0;
+
+        if (magicFirst) {
+            remaining = consumeMagic(remaining);
+            consumeNormal(remaining);
+        } else {
+            remaining = consumeNormal(remaining);
+            consumeMagic(remaining);
+        }
+    }
+
+    private long consumeNormal(long amount) {
+        long remaining = amount;
+        for (int s = 0; s < normalSlotCount && remaining > 0; s++) {
+            int slot = normalSlots[s];
+            ItemStack item = inventory.getItem(slot);
+            if (item == null || item.getType() != material) {
+                continue;
+            }
+
+            int itemAmount = item.getAmount();
+            if (itemAmount <= remaining) {
+                inventory.setItem(slot, null);
+                remaining -= itemAmount;
+            } else {
+                item.setAmount((int) (itemAmount - remaining));
+                remaining = 0;
+            }
+        }
+
+        normalAvailable = Math.max(0, normalAvailable - (amount - remaining));
+        return remaining;
+    }
+
+    private long consumeMagic(long amount) {
+        if (infiniteMagic) {
+            return 0;
+        }
+
+        long remaining = amount;
+        for (int s = 0; s < magicSlotCount && remaining > 0; s++) {
+            int slot = magicSlots[s];
+            ItemStack item = inventory.getItem(slot);
+            if (item == null || item.getType() != material) {
+                continue;
+            }
+
+            // MagicBlock 只提供逐次扣减的接口
+            int useTimes = MagicBlockHook.getUseTimes(item);
+            while (useTimes > 0 && remaining > 0) {
+                MagicBlockHook.decrementUseTimes(item);
+                useTimes--;
+                remaining--;
+            }
+
+            if (useTimes <= 0 && MagicBlockHook.getUseTimes(item) <= 0) {
+                inventory.setItem(slot, null);
+            }
+        }
+
+        magicAvailable = Math.max(0, magicAvailable - (amount - remaining));
+        return remaining;
+    }
+
+    /**
+     * 已经从背包扣除、尚未放置的材料
+     * MagicBlock 只能扣减次数不能恢复, 因此预留时排在普通方块之后, 使用时最先抵扣, 退还时只退还普通方块
+     */
+    public static final class Reservation {
+        private int normal;
+        private int magic;
+
+        public int remaining() {
+            return normal + magic;
+        }
+
+        /**
+         * 记录已经放置的数量
+         */
+        public void use(int amount) {
+            if (amount <= 0) {
+                return;
+            }
+            int fromMagic = Math.min(amount, magic);
+            magic -= fromMagic;
+            normal = Math.max(0, normal - (amount - fromMagic));
+        }
+
+        /**
+         * 取出可以退还的普通方块数量并清空预留
+         */
+        public int takeRefund() {
+            int refund = normal;
+            normal = 0;
+            magic = 0;
+            return refund;
+        }
+    }
+}
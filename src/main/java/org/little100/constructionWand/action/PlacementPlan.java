@@ -0,0 +1,525 @@
+package org.little100.constructionWand.action;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.BlockFace;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * 放置计划
+ * 手杖的放置范围总在同一层平面上, 计划以平面坐标 (u, v) 上的行区间保存, 不再为每个位置保存一个 Location。
+ * 平面由点击的面决定: 上下为 (x, z), 南北为 (x, y), 东西为 (z, y), depth 是平面所在的另一个坐标。
+ * <p>
+ * 计划是不可变的, 可以在线程之间传递和缓存; 需要 Location 时通过 {@link #asLocations()} 按需创建。
+ * 区间按 (v, u) 排序, 相同位置集合的计划内容相同, 可以直接用 equals 比较。
+ */
+public final class PlacementPlan {
+
+    /**
+     * 接收一个长方体(世界坐标, 包含两端)
+     */
+    @FunctionalInterface
+    public interface BoxConsumer {
+        void accept(int minX, int minY, int minZ, int maxX, int maxY, int maxZ);
+    }
+
+    // 平面轴: [u 轴, v 轴, 法线], 每个轴都是单位向量
+    private static final int[] AXES_XZ = { 1, 0, 0, 0, 0, 1, 0, 1, 0 };
+    private static final int[] AXES_XY = { 1, 0, 0, 0, 1, 0, 0, 0, 1 };
+    private static final int[] AXES_ZY = { 0, 0, 1, 0, 1, 0, 1, 0, 0 };
+
+    private static final PlacementPlan EMPTY = new PlacementPlan(null, BlockFace.UP, 0,
+            new int[0], new int[0], new int[0], 0);
+
+    private final World world;
+    private final BlockFace face;
+    private final int depth;
+    private final int ux, uy, uz;
+    private final int vx, vy, vz;
+    private final int nx, ny, nz;
+
+    private final int[] spanV;
+    private final int[] spanU0;
+    private final int[] spanU1;
+    // offsets[i] 是第 i 个区间之前的位置数量
+    private final int[] offsets;
+    private final int size;
+
+    private final int minX, minY, minZ;
+    private final int maxX, maxY, maxZ;
+    private final long contentHash;
+    private final int cutOffCells;
+
+    private List<Location> locationView;
+
+    PlacementPlan(World world, BlockFace face, int depth, int[] spanV, int[] spanU0, int[] spanU1, int spanCount) {
+        this(world, face, depth, spanV, spanU0, spanU1, spanCount, 0);
+    }
+
+    private PlacementPlan(World world, BlockFace face, int depth, int[] spanV, int[] spanU0, int[] spanU1,
+            int spanCount, int cutOffCells) {
+        this.world = world;
+        this.cutOffCells = cutOffCells;
+        this.face = face;
+        this.depth = depth;
+
+        int[] axes = axes(face);
+        this.ux = axes[0];
+        this.uy = axes[1];
+        this.uz = axes[2];
+        this.vx = axes[3];
+        this.vy = axes[4];
+        this.vz = axes[5];
+        this.nx = axes[6];
+        this.ny = axes[7];
+        this.nz = axes[8];
+
+        this.spanV = Arrays.copyOf(spanV, spanCount);
+        this.spanU0 = Arrays.copyOf(spanU0, spanCount);
+        this.spanU1 = Arrays.copyOf(spanU1, spanCount);
+        this.offsets = new int[spanCount + 1];
+
+        int total = 0;
+        int minU = Integer.MAX_VALUE, minV = Integer.MAX_VALUE;
+        int maxU = Integer.MIN_VALUE, maxV = Integer.MIN_VALUE;
+        for (int i = 0; i < spanCount; i++) {
+            offsets[i] = total;
+            total += this.spanU1[i] - this.spanU0[i] + 1;
+            minU = Math.min(minU, this.spanU0[i]);
+            maxU = Math.max(maxU, this.spanU1[i]);
+            minV = Math.min(minV, this.spanV[i]);
+            maxV = Math.max(maxV, this.spanV[i]);
+        }
+        offsets[spanCount] = total;
+        this.size = total;
+
+        if (total == 0) {
+            minX = minY = minZ = maxX = maxY = maxZ = 0;
+        } else {
+            minX = x(minU, minV);
+            minY = y(minU, minV);
+            minZ = z(minU, minV);
+            maxX = x(maxU, maxV);
+            maxY = y(maxU, maxV);
+            maxZ = z(maxU, maxV);
+        }
+
+        this.contentHash = computeHash();
+    }
+
+    public static PlacementPlan empty() {
+        return EMPTY;
+    }
+
+    private static int[] axes(BlockFace face) {
+        switch (face) {
+            case NORTH:
+            case SOUTH:
+                return AXES_XY;
+            case EAST:
+            case WEST:
+                return AXES_ZY;
+            case UP:
+            case DOWN:
+            default:
+                return AXES_XZ;
+        }
+    }
+
+    /**
+     * 世界坐标在该面的平面上的 u 坐标
+     */
+    static int planeU(BlockFace face, int x, int y, int z) {
+        int[] axes = axes(face);
+        return x * axes[0] + y * axes[1] + z * axes[2];
+    }
+
+    static int planeV(BlockFace face, int x, int y, int z) {
+        int[] axes = axes(face);
+        return x * axes[3] + y * axes[4] + z * axes[5];
+    }
+
+    static int planeDepth(BlockFace face, int x, int y, int z) {
+        int[] axes = axes(face);
+        return x * axes[6] + y * axes[7] + z * axes[8];
+    }
+
+    private int x(int u, int v) {
+        return u * ux + v * vx + depth * nx;
+    }
+
+    private int y(int u, int v) {
+        return u * uy + v * vy + depth * ny;
+    }
+
+    private int z(int u, int v) {
+        return u * uz + v * vz + depth * nz;
+    }
+
+    private long computeHash() {
+        long hash = 0xcbf29ce484222325L;
+        hash = mix(hash, world == null ? 0 : world.getUID().hashCode());
+        hash = mix(hash, nx | ny << 1 | nz << 2);
+        hash = mix(hash, depth);
+        for (int i = 0; i < spanV.length; i++) {
+            hash = mix(hash, spanV[i]);
+            hash = mix(hash, spanU0[i]);
+            hash = mix(hash, spanU1[i]);
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, int value) {
+        return (hash ^ value) * 0x100000001b3L;
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * 规划时点击的面
+     */
+    public BlockFace getFace() {
+        return face;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getSpanCount() {
+        return spanV.length;
+    }
+
+    public int getMinX() {
+        return minX;
+    }
+
+    public int getMinY() {
+        return minY;
+    }
+
+    public int getMinZ() {
+        return minZ;
+    }
+
+    public int getMaxX() {
+        return maxX;
+    }
+
+    public int getMaxY() {
+        return maxY;
+    }
+
+    public int getMaxZ() {
+        return maxZ;
+    }
+
+    /**
+     * 规划被截断的边界位置数量: 填充在这些位置因区块未加载(或超出规划窗口上限)而停下,
+     * 其后无法到达的位置数量未知, 不计入。不参与内容比较
+     */
+    public int getCutOffCells() {
+        return cutOffCells;
+    }
+
+    /**
+     * 记录截断数量后的计划
+     */
+    public PlacementPlan withCutOffCells(int count) {
+        if (count == cutOffCells) {
+            return this;
+        }
+        return new PlacementPlan(world, face, depth, spanV, spanU0, spanU1, spanV.length, count);
+    }
+
+    /**
+     * 内容哈希, 只取决于世界和位置集合
+     */
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * 按顺序遍历所有位置, 不创建对象
+     */
+    public void forEachCell(PlanarPlanner.CellConsumer consumer) {
+        for (int i = 0; i < spanV.length; i++) {
+            int v = spanV[i];
+            for (int u = spanU0[i]; u <= spanU1[i]; u++) {
+                consumer.accept(x(u, v), y(u, v), z(u, v));
+            }
+        }
+    }
+
+    /**
+     * 把位置贪心合并为矩形: 相邻行上列范围相同的区间合并为一个矩形
+     * @return 矩形数量
+     */
+    public int forEachRectangle(BoxConsumer consumer) {
+        int n = spanV.length;
+        int[] openU0 = new int[n], openU1 = new int[n], openV0 = new int[n];
+        int[] nextU0 = new int[n], nextU1 = new int[n], nextV0 = new int[n];
+        int openCount = 0;
+        int prevV = 0;
+        int count = 0;
+
+        int i = 0;
+        while (i < n) {
+            int v = spanV[i];
+            boolean adjacent = openCount > 0 && v == prevV + 1;
+            int nextCount = 0;
+            int j = 0;
+            for (; i < n && spanV[i] == v; i++) {
+                int u0 = spanU0[i];
+                int u1 = spanU1[i];
+                while (j < openCount && openU0[j] < u0) {
+                    emitRectangle(consumer, openU0[j], openU1[j], openV0[j], prevV);
+                    count++;
+                    j++;
+                }
+
+                int v0 = v;
+                if (j < openCount && openU0[j] == u0) {
+                    if (adjacent && openU1[j] == u1) {
+                        v0 = openV0[j];
+                    } else {
+                        emitRectangle(consumer, openU0[j], openU1[j], openV0[j], prevV);
+                        count++;
+                    }
+                    j++;
+                }
+                nextU0[nextCount] = u0;
+                nextU1[nextCount] = u1;
+                nextV0[nextCount] = v0;
+                nextCount++;
+            }
+            for (; j < openCount; j++) {
+                emitRectangle(consumer, openU0[j], openU1[j], openV0[j], prevV);
+                count++;
+            }
+
+            int[] swap = openU0; openU0 = nextU0; nextU0 = swap;
+            swap = openU1; openU1 = nextU1; nextU1 = swap;
+            swap = openV0; openV0 = nextV0; nextV0 = swap;
+            openCount = nextCount;
+            prevV = v;
+        }
+        for (int j = 0; j < openCount; j++) {
+            emitRectangle(consumer, openU0[j], openU1[j], openV0[j], prevV);
+            count++;
+        }
+        return count;
+    }
+
+    private void emitRectangle(BoxConsumer consumer, int u0, int u1, int v0, int v1) {
+        consumer.accept(x(u0, v0), y(u0, v0), z(u0, v0), x(u1, v1), y(u1, v1), z(u1, v1));
+    }
+
+    /**
+     * 保留满足条件的位置
+     */
+    public PlacementPlan filter(PlanarPlanner.CellTest keep) {
+        SpanWriter writer = new SpanWriter(spanV.length);
+        for (int i = 0; i < spanV.length; i++) {
+            int v = spanV[i];
+            for (int u = spanU0[i]; u <= spanU1[i]; u++) {
+                if (keep.test(x(u, v), y(u, v), z(u, v))) {
+                    writer.add(v, u);
+                }
+            }
+        }
+        return writer.build(this);
+    }
+
+    /**
+     * 保留 allowed 中对应下标为 true 的位置
+     */
+    public PlacementPlan retain(BitSet allowed) {
+        SpanWriter writer = new SpanWriter(spanV.length);
+        for (int i = 0; i < spanV.length; i++) {
+            int v = spanV[i];
+            int base = offsets[i] - spanU0[i];
+            for (int u = spanU0[i]; u <= spanU1[i]; u++) {
+                if (allowed.get(base + u)) {
+                    writer.add(v, u);
+                }
+            }
+        }
+        return writer.build(this);
+    }
+
+    /**
+     * 下标在 [from, to) 范围内的位置
+     */
+    public PlacementPlan slice(int from, int to) {
+        from = Math.max(0, from);
+        to = Math.min(size, to);
+        if (from == 0 && to == size) {
+            return this;
+        }
+
+        SpanWriter writer = new SpanWriter(4);
+        if (from < to) {
+            for (int i = spanIndex(from); i < spanV.length && offsets[i] < to; i++) {
+                int u0 = spanU0[i] + Math.max(0, from - offsets[i]);
+                int u1 = spanU0[i] + Math.min(to, offsets[i + 1]) - offsets[i] - 1;
+                writer.addRun(spanV[i], u0, u1);
+            }
+        }
+        return writer.build(this);
+    }
+
+    private int spanIndex(int index) {
+        int low = 0;
+        int high = spanV.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 按下标顺序的 Location 只读视图, 每次访问时创建新的 Location
+     */
+    public List<Location> asLocations() {
+        if (locationView == null) {
+            locationView = new LocationView();
+        }
+        return locationView;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof PlacementPlan))
+            return false;
+        PlacementPlan other = (PlacementPlan) o;
+        if (contentHash != other.contentHash || size != other.size) {
+            return false;
+        }
+        if (size == 0) {
+            return true;
+        }
+        return world.getUID().equals(other.world.getUID())
+                && nx == other.nx && ny == other.ny && nz == other.nz
+                && depth == other.depth
+                && Arrays.equals(spanV, other.spanV)
+                && Arrays.equals(spanU0, other.spanU0)
+                && Arrays.equals(spanU1, other.spanU1);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (contentHash ^ (contentHash >>> 32));
+    }
+
+    private final class LocationView extends AbstractList<Location> implements RandomAccess {
+
+        @Override
+        public Location get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            int span = spanIndex(index);
+            int u = spanU0[span] + index - offsets[span];
+            int v = spanV[span];
+            return new Location(world, x(u, v), y(u, v), z(u, v));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<Location> iterator() {
+            return new Iterator<Location>() {
+                private int span = 0;
+                private int u = spanV.length > 0 ? spanU0[0] : 0;
+
+                @Override
+                public boolean hasNext() {
+                    return span < spanV.length;
+                }
+
+                @Override
+                public Location next() {
+                    if (span >= spanV.length) {
+                        throw new NoSuchElementException();
+                    }
+                    int v = spanV[span];
+                    Location location = new Location(world, x(u, v), y(u, v), z(u, v));
+                    if (u++ == spanU1[span] && ++span < spanV.length) {
+                        u = spanU0[span];
+                    }
+                    return location;
+                }
+            };
+        }
+    }
+
+    /**
+     * 按 (v, u) 顺序追加位置并合并为区间
+     */
+    private static final class SpanWriter {
+        private int[] spanV;
+        private int[] spanU0;
+        private int[] spanU1;
+        private int count;
+
+        private SpanWriter(int capacity) {
+            capacity = Math.max(4, capacity);
+            spanV = new int[capacity];
+            spanU0 = new int[capacity];
+            spanU1 = new int[capacity];
+        }
+
+        private void add(int v, int u) {
+            if (count > 0 && spanV[count - 1] == v && spanU1[count - 1] == u - 1) {
+                spanU1[count - 1] = u;
+                return;
+            }
+            addRun(v, u, u);
+        }
+
+        private void addRun(int v, int u0, int u1) {
+            if (count == spanV.length) {
+                int length = spanV.length << 1;
+                spanV = Arrays.copyOf(spanV, length);
+                spanU0 = Arrays.copyOf(spanU0, length);
+                spanU1 = Arrays.copyOf(spanU1, length);
+            }
+            spanV[count] = v;
+            spanU0[count] = u0;
+            spanU1[count] = u1;
+            count++;
+        }
+
+        private PlacementPlan build(PlacementPlan source) {
+            if (count == 0 && source.cutOffCells == 0) {
+                return EMPTY;
+            }
+            return new PlacementPlan(source.world, source.face, source.depth, spanV, spanU0, spanU1, count,
+                    source.cutOffCells);
+        }
+    }
+}
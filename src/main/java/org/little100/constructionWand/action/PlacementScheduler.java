@@ -0,0 +1,310 @@
+package org.little100.constructionWand.action;
+
+import net.md_5.bungee.api.ChatMessageType;
+import net.md_5.bungee.api.chat.TextComponent;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.Plugin;
+import org.little100.constructionWand.i18n.I18nManager;
+import org.little100.constructionWand.utils.VersionHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 放置调度器
+ * 大范围的放置计划会被拆分到多个 tick 中执行, 每 tick 受全局和单个玩家的方块预算限制,
+ * 多个玩家同时放置时轮流分配预算, 放置过程中通过动作栏显示进度。
+ * Folia 下每一批按区域拆分执行, 见 {@link RegionPartitionedPlacer}
+ */
+public class PlacementScheduler {
+
+    private final Plugin plugin;
+    private final WandAction wandAction;
+    private final I18nManager i18n;
+    private final RegionPartitionedPlacer placer;
+    private final Map<UUID, PlacementJob> jobs = new ConcurrentHashMap<>();
+
+    private boolean enabled = true;
+    private int blocksPerTick = 256;
+    private int blocksPerPlayerPerTick = 64;
+    private int immediateThreshold = 64;
+    private boolean showProgress = true;
+
+    private int taskId = -1;
+    private boolean taskStarted = false;
+    private int rotation = 0;
+
+    public PlacementScheduler(Plugin plugin, WandAction wandAction, I18nManager i18n) {
+        this.plugin = plugin;
+        this.wandAction = wandAction;
+        this.i18n = i18n;
+        this.placer = new RegionPartitionedPlacer(plugin, wandAction);
+    }
+
+    /**
+     * 从配置加载调度设置
+     */
+    public void loadConfig(FileConfiguration config) {
+        enabled = config.getBoolean("placement.scheduler.enabled", true);
+        blocksPerTick = Math.max(1, config.getInt("placement.scheduler.blocks-per-tick", 256));
+        blocksPerPlayerPerTick = Math.max(1, config.getInt("placement.scheduler.blocks-per-player-per-tick", 64));
+        immediateThreshold = Math.max(0, config.getInt("placement.scheduler.immediate-threshold", 64));
+        showProgress = config.getBoolean("placement.scheduler.show-progress", true);
+    }
+
+    /**
+     * 检查该数量的放置是否应交给调度器分批执行
+     */
+    public boolean shouldSchedule(int blockCount) {
+        return enabled && blockCount > immediateThreshold;
+    }
+
+    public boolean hasPendingJob(Player player) {
+        return jobs.containsKey(player.getUniqueId());
+    }
+
+    /**
+     * 提交放置计划
+     * @return 如果该玩家已有未完成的放置则返回 false
+     */
+    public boolean submit(Player player, PlacementPlan plan, Material material, ItemStack wandItem) {
+        if (plan == null || plan.isEmpty() || !wandAction.isUsableWand(wandItem)) {
+            return true;
+        }
+
+        PlacementJob job = new PlacementJob(player.getUniqueId(), plan, material, wandItem);
+        if (jobs.putIfAbsent(player.getUniqueId(), job) != null) {
+            return false;
+        }
+
+        ensureTaskStarted();
+        return true;
+    }
+
+    private synchronized void ensureTaskStarted() {
+        if (taskStarted) {
+            return;
+        }
+        taskStarted = true;
+
+        if (VersionHelper.isFolia()) {
+            VersionHelper.runTaskTimer(plugin, this::tick, 1L, 1L);
+        } else {
+            taskId = Bukkit.getScheduler().runTaskTimer(plugin, this::tick, 1L, 1L).getTaskId();
+        }
+    }
+
+    /**
+     * 每 tick 执行一次: 按轮转顺序给每个玩家分配预算
+     */
+    private void tick() {
+        if (jobs.isEmpty()) {
+            return;
+        }
+
+        List<PlacementJob> active = new ArrayList<>(jobs.values());
+        int count = active.size();
+        int remainingBudget = blocksPerTick;
+        int fairShare = Math.max(1, Math.min(blocksPerPlayerPerTick, (blocksPerTick + count - 1) / count));
+
+        // 每 tick 换一个起点, 避免预算总是先分给同一个玩家
+        int start = Math.floorMod(rotation++, count);
+        for (int i = 0; i < count && remainingBudget > 0; i++) {
+            PlacementJob job = active.get((start + i) % count);
+            if (job.inFlight) {
+                continue;
+            }
+
+            int slice = Math.min(fairShare, remainingBudget);
+            remainingBudget -= slice;
+            dispatch(job, slice);
+        }
+    }
+
+    private void dispatch(PlacementJob job, int slice) {
+        Player player = Bukkit.getPlayer(job.playerId);
+        if (player == null || !player.isOnline()) {
+            jobs.remove(job.playerId);
+            return;
+        }
+
+        if (VersionHelper.isFolia()) {
+            dispatchAcrossRegions(player, job, slice);
+        } else {
+            runSlice(player, job, slice);
+        }
+    }
+
+    /**
+     * Folia: 先在玩家线程上检查保护并为本批次预留材料, 再按区域拆分放置,
+     * 回到玩家线程结算后继续下一批。上一批没用完的预留留给下一批, 放置结束时退还
+     */
+    private void dispatchAcrossRegions(Player player, PlacementJob job, int slice) {
+        int end = Math.min(job.plan.size(), job.nextIndex + slice);
+        PlacementPlan batch = job.plan.slice(job.nextIndex, end);
+        job.nextIndex = end;
+        job.inFlight = true;
+
+        VersionHelper.runAtEntity(plugin, player, () -> {
+            if (jobs.get(job.playerId) != job) {
+                return;
+            }
+
+            PlacementPlan allowed = wandAction.filterProtected(player, batch, job.material, true);
+            int needed = allowed.size() - job.reservation.remaining();
+            if (needed > 0 && wandAction.reserveBlocks(player, job.material, needed, job.reservation) < needed) {
+                // 材料不足, 本批次放完后结束
+                job.nextIndex = job.plan.size();
+            }
+
+            AtomicInteger budget = new AtomicInteger(job.reservation.remaining());
+            job.budget = budget;
+            placer.place(player, allowed, job.material, budget, placed -> {
+                // 放置期间被取消时已经结算并退还
+                if (jobs.get(job.playerId) != job) {
+                    return;
+                }
+                settleBudget(job);
+                job.placed += placed;
+                job.inFlight = false;
+
+                if (job.nextIndex >= job.plan.size()) {
+                    complete(player, job);
+                } else if (showProgress) {
+                    sendActionBar(player, i18n.get("message.place-progress", job.nextIndex, job.plan.size()));
+                }
+            });
+        });
+    }
+
+    /**
+     * 收回本批次没有用掉的预算, 更新预留(区域线程先扣预算再放置, 剩余预算就是未使用的预留)
+     */
+    private static void settleBudget(PlacementJob job) {
+        AtomicInteger budget = job.budget;
+        if (budget == null) {
+            return;
+        }
+        job.budget = null;
+
+        int granted = job.reservation.remaining();
+        int unused = Math.max(0, budget.getAndSet(0));
+        job.reservation.use(granted - unused);
+    }
+
+    private void runSlice(Player player, PlacementJob job, int slice) {
+        int end = Math.min(job.plan.size(), job.nextIndex + slice);
+        PlacementPlan batch = wandAction.filterProtected(player, job.plan.slice(job.nextIndex, end),
+                job.material, true);
+        job.nextIndex = end;
+
+        EntityCollisionIndex entities = wandAction.buildEntityIndex(batch);
+        // 玩家可能在两批之间改动背包, 账本只在同一批内复用
+        InventoryLedger ledger = wandAction.openLedger(player, job.material);
+        for (Location loc : batch.asLocations()) {
+            WandAction.PlaceResult result = wandAction.placeSingle(player, loc, job.material, entities, ledger);
+            if (result == WandAction.PlaceResult.OUT_OF_BLOCKS) {
+                job.nextIndex = job.plan.size();
+                break;
+            }
+            if (result == WandAction.PlaceResult.PLACED) {
+                job.placed++;
+            }
+        }
+        ledger.commit();
+
+        if (job.nextIndex >= job.plan.size()) {
+            complete(player, job);
+        } else if (showProgress) {
+            sendActionBar(player, i18n.get("message.place-progress", job.nextIndex, job.plan.size()));
+        }
+    }
+
+    private void complete(Player player, PlacementJob job) {
+        jobs.remove(job.playerId);
+        wandAction.refundBlocks(player, job.material, job.reservation);
+        wandAction.finishPlacement(player, job.plan, job.wandItem, job.placed);
+
+        if (job.placed > 0) {
+            player.sendMessage(i18n.get("message.place-success", job.placed));
+        }
+    }
+
+    private void sendActionBar(Player player, String message) {
+        try {
+            player.spigot().sendMessage(ChatMessageType.ACTION_BAR, TextComponent.fromLegacyText(message));
+        } catch (Exception e) {
+
+        }
+    }
+
+    /**
+     * 取消玩家未完成的放置, 已放置的部分正常结算
+     */
+    public void cancel(Player player) {
+        PlacementJob job = jobs.remove(player.getUniqueId());
+        if (job == null) {
+            return;
+        }
+
+        // 正在放置的批次停止领取预算, 剩余的预留立即退还
+        settleBudget(job);
+        wandAction.refundBlocks(player, job.material, job.reservation);
+        if (job.placed > 0) {
+            wandAction.finishPlacement(player, job.plan, job.wandItem, job.placed);
+        }
+    }
+
+    /**
+     * 插件关闭时结算所有未完成的放置
+     */
+    public void shutdown() {
+        for (PlacementJob job : new ArrayList<>(jobs.values())) {
+            Player player = Bukkit.getPlayer(job.playerId);
+            if (player == null) {
+                continue;
+            }
+
+            settleBudget(job);
+            wandAction.refundBlocks(player, job.material, job.reservation);
+            if (job.placed > 0) {
+                wandAction.finishPlacement(player, job.plan, job.wandItem, job.placed);
+            }
+        }
+        jobs.clear();
+
+        if (taskId != -1 && !VersionHelper.isFolia()) {
+            Bukkit.getScheduler().cancelTask(taskId);
+            taskId = -1;
+        }
+    }
+
+    private static class PlacementJob {
+        private final UUID playerId;
+        private final PlacementPlan plan;
+        private final Material material;
+        private final ItemStack wandItem;
+        private int nextIndex;
+        private int placed;
+        // Folia: 已预留的材料和当前批次的预算
+        private final InventoryLedger.Reservation reservation = new InventoryLedger.Reservation();
+        private volatile AtomicInteger budget;
+        private volatile boolean inFlight;
+
+        private PlacementJob(UUID playerId, PlacementPlan plan, Material material, ItemStack wandItem) {
+            this.playerId = playerId;
+            this.plan = plan;
+            this.material = material;
+            this.wandItem = wandItem;
+        }
+    }
+}
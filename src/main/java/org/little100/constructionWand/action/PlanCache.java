@@ -0,0 +1,158 @@
+package org.little100.constructionWand.action;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.BlockFace;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 玩家放置规划缓存
+ * 每个玩家只保存最近一次的规划(通常来自预览), 右键放置时如果条件完全一致就直接复用,
+ * 只需重新校验即可。规划包围盒(向外扩展一格)内发生方块变化时缓存失效。
+ */
+public class PlanCache {
+
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * 获取缓存的规划
+     * @return 与 key 完全匹配的规划, 没有时返回 null
+     */
+    public PlacementPlan get(UUID playerId, PlanKey key) {
+        Entry entry = entries.get(playerId);
+        if (entry == null || !entry.key.equals(key)) {
+            return null;
+        }
+        return entry.plan;
+    }
+
+    public void put(UUID playerId, PlanKey key, PlacementPlan plan) {
+        if (plan == null || plan.isEmpty()) {
+            entries.remove(playerId);
+            return;
+        }
+        entries.put(playerId, new Entry(key, plan));
+    }
+
+    /**
+     * 玩家是否有仍然有效的规划
+     */
+    public boolean contains(UUID playerId) {
+        return entries.containsKey(playerId);
+    }
+
+    public void invalidate(UUID playerId) {
+        entries.remove(playerId);
+    }
+
+    /**
+     * 使包含指定方块的规划失效
+     */
+    public void invalidateBlock(World world, int x, int y, int z) {
+        invalidateArea(world, x, y, z, x, y, z);
+    }
+
+    /**
+     * 使与指定区域相交的规划失效
+     */
+    public void invalidateArea(World world, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        if (entries.isEmpty() || world == null) {
+            return;
+        }
+
+        UUID worldId = world.getUID();
+        entries.values().removeIf(entry -> entry.key.worldId.equals(worldId)
+                && entry.intersects(minX, minY, minZ, maxX, maxY, maxZ));
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * 规划缓存的键
+     */
+    public static final class PlanKey {
+        private final UUID worldId;
+        private final int x;
+        private final int y;
+        private final int z;
+        private final BlockFace face;
+        private final Material material;
+        private final String wandId;
+        private final int enchantLevel;
+        private final int inventoryVersion;
+
+        /**
+         * @param inventoryVersion 背包版本, 这里使用可用方块数量, 背包变化会影响最大放置数量
+         */
+        public PlanKey(World world, int x, int y, int z, BlockFace face, Material material, String wandId,
+                int enchantLevel, int inventoryVersion) {
+            this.worldId = world.getUID();
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.face = face;
+            this.material = material;
+            this.wandId = wandId;
+            this.enchantLevel = enchantLevel;
+            this.inventoryVersion = inventoryVersion;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof PlanKey))
+                return false;
+            PlanKey other = (PlanKey) o;
+            return x == other.x && y == other.y && z == other.z
+                    && enchantLevel == other.enchantLevel
+                    && inventoryVersion == other.inventoryVersion
+                    && face == other.face
+                    && material == other.material
+                    && worldId.equals(other.worldId)
+                    && Objects.equals(wandId, other.wandId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(worldId, x, y, z, face, material, wandId, enchantLevel, inventoryVersion);
+        }
+    }
+
+    private static final class Entry {
+        private final PlanKey key;
+        private final PlacementPlan plan;
+        private final int minX;
+        private final int minY;
+        private final int minZ;
+        private final int maxX;
+        private final int maxY;
+        private final int maxZ;
+
+        private Entry(PlanKey key, PlacementPlan plan) {
+            this.key = key;
+            this.plan = plan;
+
+            // 向外扩展一格: 相邻位置和支撑层的变化也会改变规划结果
+            this.minX = plan.getMinX() - 1;
+            this.minY = plan.getMinY() - 1;
+            this.minZ = plan.getMinZ() - 1;
+            this.maxX = plan.getMaxX() + 1;
+            this.maxY = plan.getMaxY() + 1;
+            this.maxZ = plan.getMaxZ() + 1;
+        }
+
+        private boolean intersects(int otherMinX, int otherMinY, int otherMinZ,
+                int otherMaxX, int otherMaxY, int otherMaxZ) {
+            return otherMaxX >= minX && otherMinX <= maxX
+                    && otherMaxY >= minY && otherMinY <= maxY
+                    && otherMaxZ >= minZ && otherMinZ <= maxZ;
+        }
+    }
+}
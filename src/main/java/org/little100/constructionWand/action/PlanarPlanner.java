@@ -0,0 +1,403 @@
+package org.little100.constructionWand.action;
+
+import org.bukkit.World;
+import org.bukkit.block.BlockFace;
+
+import java.util.Arrays;
+
+/**
+ * 平面放置规划器
+ * 手杖的放置范围总是位于点击面相邻的一层, 因此把这一层投影为二维平面 (u, v),
+ * 在以起点为中心的菱形窗口内做扫描线填充, 同一个窗口内每个位置最多读取一次, 结果以行区间表示,
+ * 通过 {@link #toPlan(World)} 转换为 {@link PlacementPlan}。
+ * <p>
+ * 超出最大方块数时, 在已填充的位图上按到起点的步数选取最近的位置, 与逐格广度优先扩展的结果一致;
+ * 如果窗口不足以确定结果, 则把窗口扩大一倍后重新填充(之前读取过的位置会再读取一次)。结果中的位置到起点的步数不超过 maxBlocks - 1,
+ * 因此窗口最大为 maxBlocks; 只有超过位图内存上限 {@link #MAX_WINDOW} 时才会截断, 截断处的边界位置数量见 {@link #getCutOffCells()}。
+ * 实例内部缓冲区可复用, 但不是线程安全的, 每个线程应持有自己的实例。
+ */
+public class PlanarPlanner {
+
+    /**
+     * 对单个坐标进行判断
+     */
+    @FunctionalInterface
+    public interface CellTest {
+        boolean test(int x, int y, int z);
+    }
+
+    /**
+     * 接收单个坐标
+     */
+    @FunctionalInterface
+    public interface CellConsumer {
+        void accept(int x, int y, int z);
+    }
+
+    private static final int MIN_WINDOW = 4;
+    // 位图内存上限, 窗口 4096 时每个位图约 8MB
+    private static final int MAX_WINDOW = 4096;
+    // 更大的缓冲区在规划结束后释放, 不长期保留在线程中
+    private static final int RETAINED_WINDOW = 512;
+
+    private int originX, originY, originZ;
+    private BlockFace face = BlockFace.UP;
+    private int ux, uy, uz;
+    private int vx, vy, vz;
+
+    private int window;
+    private int size;
+    private long[] known = new long[0];
+    private long[] passed = new long[0];
+    private long[] filled = new long[0];
+    private int[] stack = new int[64];
+    private int[] queue = new int[256];
+
+    private int[] spanV = new int[16];
+    private int[] spanU0 = new int[16];
+    private int[] spanU1 = new int[16];
+    private int spanCount;
+    private int cellCount;
+    private int cutOffCells;
+
+    // 最近一次填充的结果
+    private int regionCount;
+    private boolean touchedBorder;
+    private int borderCells;
+
+    /**
+     * 从起点开始规划放置范围
+     * @param startX 起点 x(点击方块相邻的位置)
+     * @param startY 起点 y
+     * @param startZ 起点 z
+     * @param clickedFace 点击的面, 决定扩展平面
+     * @param maxBlocks 最大结果数量
+     * @param test 位置是否可以放置(可替换且背后有支撑方块)
+     * @return 结果数量, 通过 {@link #toPlan(World)} 读取
+     */
+    public int plan(int startX, int startY, int startZ, BlockFace clickedFace, int maxBlocks, CellTest test) {
+        try {
+            return planInWindow(startX, startY, startZ, clickedFace, maxBlocks, test);
+        } finally {
+            if (window > RETAINED_WINDOW) {
+                known = new long[0];
+                passed = new long[0];
+                filled = new long[0];
+                stack = new int[64];
+                queue = new int[256];
+            }
+        }
+    }
+
+    private int planInWindow(int startX, int startY, int startZ, BlockFace clickedFace, int maxBlocks,
+            CellTest test) {
+        originX = startX;
+        originY = startY;
+        originZ = startZ;
+        face = clickedFace;
+        setAxes(clickedFace);
+        spanCount = 0;
+        cellCount = 0;
+        cutOffCells = 0;
+        window = 0;
+
+        if (maxBlocks <= 0) {
+            return 0;
+        }
+
+        // 开阔平面上 maxBlocks 个位置大约占据半径 sqrt(maxBlocks / 2) 的菱形
+        int w = Math.max(MIN_WINDOW, (int) Math.ceil(Math.sqrt(maxBlocks / 2.0)) + 1);
+        int maxWindow = Math.min(MAX_WINDOW, Math.max(MIN_WINDOW, maxBlocks));
+        w = Math.min(w, maxWindow);
+
+        while (true) {
+            prepare(w);
+
+            if (!test(0, 0, test)) {
+                return 0;
+            }
+
+            fill(test);
+
+            if (!touchedBorder && regionCount <= maxBlocks) {
+                collectSpans(filled);
+                return cellCount;
+            }
+
+            int lastDistance = selectNearest(maxBlocks);
+            boolean exact = cellCount == maxBlocks && lastDistance <= window;
+            if (exact || !touchedBorder || window >= maxWindow) {
+                // 窗口不小于 maxBlocks 时结果一定完整, 否则报告填充在窗口边界上停下的位置数量
+                if (!exact && touchedBorder) {
+                    cutOffCells = borderCells;
+                }
+                collectSpans(known);
+                return cellCount;
+            }
+
+            w = Math.min(maxWindow, window * 2);
+        }
+    }
+
+    private void setAxes(BlockFace clickedFace) {
+        ux = uy = uz = vx = vy = vz = 0;
+        switch (clickedFace) {
+            case NORTH:
+            case SOUTH:
+                ux = 1;
+                vy = 1;
+                break;
+            case EAST:
+            case WEST:
+                uz = 1;
+                vy = 1;
+                break;
+            case UP:
+            case DOWN:
+            default:
+                ux = 1;
+                vz = 1;
+                break;
+        }
+    }
+
+    private void prepare(int w) {
+        window = w;
+        size = 2 * w + 1;
+        int words = (size * size + 63) >>> 6;
+        if (known.length < words) {
+            known = new long[words];
+            passed = new long[words];
+            filled = new long[words];
+        } else {
+            Arrays.fill(known, 0, words, 0L);
+            Arrays.fill(passed, 0, words, 0L);
+            Arrays.fill(filled, 0, words, 0L);
+        }
+    }
+
+    private int index(int u, int v) {
+        return (v + window) * size + (u + window);
+    }
+
+    private static boolean get(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    private int rowLimit(int v) {
+        return window - Math.abs(v);
+    }
+
+    /**
+     * 读取平面坐标处的结果, 每个位置只读取一次
+     */
+    private boolean test(int u, int v, CellTest test) {
+        int index = index(u, v);
+        if (get(known, index)) {
+            return get(passed, index);
+        }
+
+        set(known, index);
+        boolean result = test.test(
+                originX + u * ux + v * vx,
+                originY + u * uy + v * vy,
+                originZ + u * uz + v * vz);
+        if (result) {
+            set(passed, index);
+        }
+        return result;
+    }
+
+    private boolean fillable(int u, int v, CellTest test) {
+        return !get(filled, index(u, v)) && test(u, v, test);
+    }
+
+    /**
+     * 扫描线填充, 结果写入 filled 位图, 并记录填充数量和是否到达窗口边界
+     */
+    private void fill(CellTest test) {
+        regionCount = 0;
+        touchedBorder = false;
+        borderCells = 0;
+        int top = 0;
+        stack = push(stack, top++, index(0, 0));
+
+        while (top > 0) {
+            int seed = stack[--top];
+            int u = seed % size - window;
+            int v = seed / size - window;
+            if (get(filled, seed)) {
+                continue;
+            }
+
+            int limit = rowLimit(v);
+            int left = u;
+            while (left > -limit && fillable(left - 1, v, test)) {
+                left--;
+            }
+            int right = u;
+            while (right < limit && fillable(right + 1, v, test)) {
+                right++;
+            }
+
+            for (int x = left; x <= right; x++) {
+                set(filled, index(x, v));
+            }
+            regionCount += right - left + 1;
+            if (left == -limit || right == limit) {
+                touchedBorder = true;
+                borderCells += (left == -limit ? 1 : 0) + (right == limit && right != left ? 1 : 0);
+            }
+
+            for (int dv = -1; dv <= 1; dv += 2) {
+                int nv = v + dv;
+                int nLimit = rowLimit(nv);
+                if (nLimit < 0) {
+                    continue;
+                }
+
+                boolean inRun = false;
+                for (int x = Math.max(left, -nLimit); x <= Math.min(right, nLimit); x++) {
+                    boolean ok = fillable(x, nv, test);
+                    if (ok && !inRun) {
+                        stack = push(stack, top++, index(x, nv));
+                    }
+                    inRun = ok;
+                }
+            }
+        }
+    }
+
+    private static int[] push(int[] array, int index, int value) {
+        if (index == array.length) {
+            int[] grown = new int[array.length << 1];
+            System.arraycopy(array, 0, grown, 0, index);
+            array = grown;
+        }
+        array[index] = value;
+        return array;
+    }
+
+    /**
+     * 在已填充的位图上按步数选取离起点最近的 maxBlocks 个位置, 结果写入 known 位图
+     * @return 最后一个选中位置的步数
+     */
+    private int selectNearest(int maxBlocks) {
+        int words = (size * size + 63) >>> 6;
+        Arrays.fill(known, 0, words, 0L);
+
+        int head = 0;
+        int tail = 0;
+        int start = index(0, 0);
+        queue = push(queue, tail++, start);
+        set(known, start);
+        cellCount = 0;
+
+        int distance = 0;
+        int layerEnd = tail;
+        int lastDistance = 0;
+        int[][] offsets = { { 0, -1 }, { 0, 1 }, { 1, 0 }, { -1, 0 } };
+
+        while (head < tail && cellCount < maxBlocks) {
+            if (head == layerEnd) {
+                distance++;
+                layerEnd = tail;
+            }
+
+            int current = queue[head++];
+            cellCount++;
+            lastDistance = distance;
+
+            int u = current % size - window;
+            int v = current / size - window;
+            for (int[] offset : offsets) {
+                int nu = u + offset[0];
+                int nv = v + offset[1];
+                if (Math.abs(nu) + Math.abs(nv) > window) {
+                    continue;
+                }
+                int neighbor = index(nu, nv);
+                if (get(filled, neighbor) && !get(known, neighbor)) {
+                    set(known, neighbor);
+                    queue = push(queue, tail++, neighbor);
+                }
+            }
+        }
+
+        // 已入队但未选中的位置需要清除
+        for (int i = head; i < tail; i++) {
+            int index = queue[i];
+            known[index >>> 6] &= ~(1L << index);
+        }
+        return lastDistance;
+    }
+
+    /**
+     * 把位图按行转换为区间
+     */
+    private void collectSpans(long[] bits) {
+        spanCount = 0;
+        cellCount = 0;
+        for (int v = -window; v <= window; v++) {
+            int limit = rowLimit(v);
+            int runStart = Integer.MIN_VALUE;
+            for (int u = -limit; u <= limit + 1; u++) {
+                boolean on = u <= limit && get(bits, index(u, v));
+                if (on && runStart == Integer.MIN_VALUE) {
+                    runStart = u;
+                } else if (!on && runStart != Integer.MIN_VALUE) {
+                    addSpan(v, runStart, u - 1);
+                    runStart = Integer.MIN_VALUE;
+                }
+            }
+        }
+    }
+
+    private void addSpan(int v, int u0, int u1) {
+        if (spanCount == spanV.length) {
+            int length = spanV.length << 1;
+            spanV = Arrays.copyOf(spanV, length);
+            spanU0 = Arrays.copyOf(spanU0, length);
+            spanU1 = Arrays.copyOf(spanU1, length);
+        }
+        spanV[spanCount] = v;
+        spanU0[spanCount] = u0;
+        spanU1[spanCount] = u1;
+        spanCount++;
+        cellCount += u1 - u0 + 1;
+    }
+
+    /**
+     * 最近一次规划中填充因窗口达到上限而停下的边界位置数量, 不是其后丢失的位置总数
+     */
+    public int getCutOffCells() {
+        return cutOffCells;
+    }
+
+    /**
+     * 把最近一次的结果转换为不可变的放置计划
+     */
+    public PlacementPlan toPlan(World world) {
+        if (spanCount == 0) {
+            return PlacementPlan.empty();
+        }
+
+        int baseU = PlacementPlan.planeU(face, originX, originY, originZ);
+        int baseV = PlacementPlan.planeV(face, originX, originY, originZ);
+        int[] v = new int[spanCount];
+        int[] u0 = new int[spanCount];
+        int[] u1 = new int[spanCount];
+        for (int i = 0; i < spanCount; i++) {
+            v[i] = spanV[i] + baseV;
+            u0[i] = spanU0[i] + baseU;
+            u1[i] = spanU1[i] + baseU;
+        }
+        PlacementPlan plan = new PlacementPlan(world, face, PlacementPlan.planeDepth(face, originX, originY, originZ),
+                v, u0, u1, spanCount);
+        return cutOffCells > 0 ? plan.withCutOffCells(cutOffCells) : plan;
+    }
+}
@@ -0,0 +1,92 @@
+package org.little100.constructionWand.action;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.little100.constructionWand.utils.VersionHelper;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Folia 区域拆分放置器
+ * 按区块拆分放置计划(一个区块总是只属于一个区域), 每一片通过 runAtLocation 在拥有该区块的区域线程上执行,
+ * 所有分片完成后回到玩家的实体调度器上回调。
+ * 区域线程不访问玩家背包, 也不触发保护检查事件: 计划必须已在玩家线程上通过保护检查, 材料由调用方预留
+ */
+public class RegionPartitionedPlacer {
+
+    private final Plugin plugin;
+    private final WandAction wandAction;
+
+    public RegionPartitionedPlacer(Plugin plugin, WandAction wandAction) {
+        this.plugin = plugin;
+        this.wandAction = wandAction;
+    }
+
+    /**
+     * 分区域放置
+     * @param plan 已通过 {@link WandAction#filterProtected(Player, PlacementPlan, Material, boolean)} 检查的计划
+     * @param budget 已预留的材料数量, 各区域线程共享扣减
+     * @param onSettled 所有分片完成后在玩家线程上回调, 参数为实际放置数量
+     */
+    public void place(Player player, PlacementPlan plan, Material material, AtomicInteger budget,
+            IntConsumer onSettled) {
+        List<PlacementPlan> slices = partitionByChunk(plan);
+        if (slices.isEmpty()) {
+            onSettled.accept(0);
+            return;
+        }
+
+        AtomicInteger pending = new AtomicInteger(slices.size());
+        AtomicInteger placed = new AtomicInteger();
+
+        for (PlacementPlan slice : slices) {
+            VersionHelper.runAtLocation(plugin, slice.asLocations().get(0), () -> {
+                try {
+                    EntityCollisionIndex entities = wandAction.buildEntityIndex(slice);
+                    for (Location loc : slice.asLocations()) {
+                        WandAction.PlaceResult result = wandAction.placeInRegion(player, loc, material, budget,
+                                entities);
+                        if (result == WandAction.PlaceResult.OUT_OF_BLOCKS) {
+                            break;
+                        }
+                        if (result == WandAction.PlaceResult.PLACED) {
+                            placed.incrementAndGet();
+                        }
+                    }
+                } finally {
+                    if (pending.decrementAndGet() == 0) {
+                        settle(player, placed.get(), onSettled);
+                    }
+                }
+            });
+        }
+    }
+
+    private void settle(Player player, int placed, IntConsumer onSettled) {
+        VersionHelper.runAtEntity(plugin, player, () -> onSettled.accept(placed));
+    }
+
+    private static List<PlacementPlan> partitionByChunk(PlacementPlan plan) {
+        // 按区块记录位置下标, 再从原计划中取出每个区块的部分
+        Map<Long, BitSet> members = new LinkedHashMap<>();
+        int[] index = { 0 };
+        plan.forEachCell((x, y, z) -> {
+            long chunkKey = ((long) (x >> 4) << 32) | ((z >> 4) & 0xFFFFFFFFL);
+            members.computeIfAbsent(chunkKey, key -> new BitSet(plan.size())).set(index[0]++);
+        });
+
+        List<PlacementPlan> slices = new ArrayList<>(members.size());
+        for (BitSet bits : members.values()) {
+            slices.add(plan.retain(bits));
+        }
+        return slices;
+    }
+}
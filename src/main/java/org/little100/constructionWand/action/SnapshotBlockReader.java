@@ -0,0 +1,121 @@
+package org.little100.constructionWand.action;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.little100.constructionWand.utils.LongHashSet;
+import org.little100.constructionWand.utils.VersionHelper;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 基于区块快照的方块类型读取器
+ * 快照在拥有区块的线程上按需捕获, 之后可以在任意线程只读访问; 捕获和读取交替进行, 不会同时发生。
+ * 未加载(或 Folia 上不属于当前区域)的区块没有快照, 规划时视为区块未加载。
+ * 规划读取到尚未捕获的区块时同样视为未加载, 并记录下来, 由调用方捕获后重新规划。
+ */
+public class SnapshotBlockReader {
+
+    private final World world;
+    private final Map<Long, ChunkSnapshot> snapshots = new HashMap<>();
+    private final LongHashSet unavailable = new LongHashSet(16);
+    private final Set<Long> missing = new HashSet<>();
+    private final int minY;
+    private final int maxY;
+
+    public SnapshotBlockReader(World world) {
+        this.world = world;
+
+        int min;
+        int max;
+        try {
+            min = world.getMinHeight();
+            max = world.getMaxHeight();
+        } catch (Throwable e) {
+            min = 0;
+            max = 256;
+        }
+        this.minY = min;
+        this.maxY = max;
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 捕获覆盖指定方块范围的区块(必须在玩家所在线程上调用)
+     */
+    public void captureArea(int minX, int minZ, int maxX, int maxZ) {
+        for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+            for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+                capture(chunkX, chunkZ);
+            }
+        }
+    }
+
+    /**
+     * 捕获一个区块, 已捕获或已确认不可用的区块不重复处理
+     * @return 是否新增了快照
+     */
+    public boolean capture(int chunkX, int chunkZ) {
+        long key = chunkKey(chunkX, chunkZ);
+        if (snapshots.containsKey(key) || unavailable.contains(key)) {
+            return false;
+        }
+
+        // 不触发区块加载; Folia 上只读取当前区域拥有的区块
+        if (world.isChunkLoaded(chunkX, chunkZ) && VersionHelper.isOwnedByCurrentRegion(world, chunkX, chunkZ)) {
+            snapshots.put(key, world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false));
+            return true;
+        }
+        unavailable.add(key);
+        return false;
+    }
+
+    /**
+     * 区块是否可以读取; 尚未捕获的区块返回 false 并记录
+     */
+    public boolean isChunkLoaded(int chunkX, int chunkZ) {
+        long key = chunkKey(chunkX, chunkZ);
+        if (snapshots.containsKey(key)) {
+            return true;
+        }
+        if (!unavailable.contains(key)) {
+            missing.add(key);
+        }
+        return false;
+    }
+
+    /**
+     * 取出上一次规划时读取到的尚未捕获的区块, 每项为 {chunkX, chunkZ}
+     */
+    public int[][] takeMissing() {
+        int[][] result = new int[missing.size()][];
+        int i = 0;
+        for (long key : missing) {
+            result[i++] = new int[] { (int) (key >> 32), (int) key };
+        }
+        missing.clear();
+        return result;
+    }
+
+    /**
+     * 读取方块类型
+     * @return 方块类型, 坐标所在区块没有快照时返回 null
+     */
+    public Material getType(int x, int y, int z) {
+        if (y < minY || y >= maxY) {
+            return null;
+        }
+
+        ChunkSnapshot snapshot = snapshots.get(chunkKey(x >> 4, z >> 4));
+        if (snapshot == null) {
+            return null;
+        }
+        return snapshot.getBlockType(x & 15, y, z & 15);
+    }
+}
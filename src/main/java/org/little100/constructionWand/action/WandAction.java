@@ -3,31 +3,47 @@ package org.little100.constructionWand.action;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.Sound;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.entity.Entity;
-import org.bukkit.entity.EntityType;
-import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.PlayerInventory;
-import org.bukkit.util.BoundingBox;
+import org.bukkit.plugin.Plugin;
 import org.little100.constructionWand.enchant.EnchantmentManager;
+import org.little100.constructionWand.enchant.WandEnchantment;
 import org.little100.constructionWand.hook.MagicBlockHook;
 import org.little100.constructionWand.protection.ProtectionChecker;
+import org.little100.constructionWand.utils.BlockPos;
+import org.little100.constructionWand.utils.LongHashSet;
+import org.little100.constructionWand.utils.MaterialTable;
+import org.little100.constructionWand.utils.VersionHelper;
 import org.little100.constructionWand.wand.WandConfigManager;
 import org.little100.constructionWand.wand.WandItemManager;
 import org.little100.constructionWand.wand.WandType;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
 
 public class WandAction {
 
+    // 规划器内部缓冲区按线程复用(Folia 下可能有多个区域线程同时规划)
+    private static final ThreadLocal<PlanarPlanner> PLANNERS = ThreadLocal.withInitial(PlanarPlanner::new);
+
     private final WandItemManager wandItemManager;
     private final ProtectionChecker protectionChecker;
+    private final PlanCache planCache = new PlanCache();
     private EnchantmentManager enchantmentManager;
     private WandConfigManager wandConfigManager;
+    private AsyncPlacementPlanner asyncPlanner;
+    private Plugin plugin;
     
+    private volatile EntityIgnoreTable entityIgnoreTable = new EntityIgnoreTable();
+
     // MagicBlock 配置
     private boolean useMagicBlockFirst = true;
     private boolean requireMagicBlockPermission = true;
@@ -45,6 +61,24 @@ public class WandAction {
         this.wandConfigManager = wandConfigManager;
     }
 
+    public void setAsyncPlanner(AsyncPlacementPlanner asyncPlanner) {
+        this.asyncPlanner = asyncPlanner;
+    }
+
+    public void setPlugin(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * 设置额外忽略碰撞的实体类型
+     * @return 无法识别的实体名称
+     */
+    public Set<String> setExtraIgnoredEntities(List<String> entityTypes) {
+        EntityIgnoreTable table = new EntityIgnoreTable(entityTypes);
+        entityIgnoreTable = table;
+        return table.getUnknownNames();
+    }
+
     /**
      * 设置是否优先使用 MagicBlock 的方块
      */
@@ -59,139 +93,443 @@ public class WandAction {
         this.requireMagicBlockPermission = requireMagicBlockPermission;
     }
 
-    public List<Location> calculatePlaceableLocations(Player player, Block clickedBlock,
+    public PlacementPlan calculatePlaceableLocations(Player player, Block clickedBlock,
+            BlockFace clickedFace, ItemStack wandItem) {
+        PlanRequest request = resolvePlanRequest(player, clickedBlock, clickedFace, wandItem);
+        if (request == null) {
+            return PlacementPlan.empty();
+        }
+
+        PlacementPlan plan = expandPlacementArea(player, clickedBlock, clickedFace, clickedBlock.getType(),
+                request.maxBlocks);
+        planCache.put(player.getUniqueId(), request.key, plan);
+        return plan;
+    }
+
+    public CompletableFuture<PlacementPlan> calculatePlaceableLocationsAsync(Player player, Block clickedBlock,
             BlockFace clickedFace, ItemStack wandItem) {
-        List<Location> locations = new ArrayList<>();
+        return calculatePlaceableLocationsAsync(player, clickedBlock, clickedFace, wandItem, false);
+    }
+
+    /**
+     * 异步计算可放置位置
+     * 大范围规划在区块快照上于工作线程中完成, 之后回到玩家所在线程复核(方块、保护、实体)。
+     * 返回的 Future 总是在玩家所在线程上完成; 范围较小或未启用异步时直接同步计算。
+     * @param reuseCachedPlan 是否复用该玩家最近一次的规划(右键放置时复用预览结果)
+     */
+    public CompletableFuture<PlacementPlan> calculatePlaceableLocationsAsync(Player player, Block clickedBlock,
+            BlockFace clickedFace, ItemStack wandItem, boolean reuseCachedPlan) {
+        PlanRequest request = resolvePlanRequest(player, clickedBlock, clickedFace, wandItem);
+        if (request == null) {
+            return CompletableFuture.completedFuture(PlacementPlan.empty());
+        }
+
+        UUID playerId = player.getUniqueId();
+        Material material = clickedBlock.getType();
+        int maxBlocks = request.maxBlocks;
+
+        if (reuseCachedPlan) {
+            PlacementPlan cached = planCache.get(playerId, request.key);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(reverifyCachedPlan(cached, clickedFace, material));
+            }
+        }
+
+        if (plugin == null || asyncPlanner == null || !asyncPlanner.shouldUseAsync(maxBlocks)) {
+            PlacementPlan plan = expandPlacementArea(player, clickedBlock, clickedFace, material, maxBlocks);
+            planCache.put(playerId, request.key, plan);
+            return CompletableFuture.completedFuture(plan);
+        }
+
+        World world = clickedBlock.getWorld();
+        int startX = clickedBlock.getX() + clickedFace.getModX();
+        int startY = clickedBlock.getY() + clickedFace.getModY();
+        int startZ = clickedBlock.getZ() + clickedFace.getModZ();
+        BlockFace supportFace = clickedFace.getOppositeFace();
+        int supportDx = supportFace.getModX();
+        int supportDy = supportFace.getModY();
+        int supportDz = supportFace.getModZ();
+
+        // 首次快照: 开阔平面所需的范围加上背后的支撑层, 更远的区块在规划读取到时再捕获
+        int radius = asyncPlanner.getSnapshotRadius(maxBlocks);
+        int radiusX = clickedFace.getModX() == 0 ? radius : 0;
+        int radiusZ = clickedFace.getModZ() == 0 ? radius : 0;
+        SnapshotBlockReader reader = new SnapshotBlockReader(world);
+        reader.captureArea(
+                Math.min(startX, startX + supportDx) - radiusX,
+                Math.min(startZ, startZ + supportDz) - radiusZ,
+                Math.max(startX, startX + supportDx) + radiusX,
+                Math.max(startZ, startZ + supportDz) + radiusZ);
+
+        CompletableFuture<PlacementPlan> result = new CompletableFuture<>();
+        PlanRound round = new PlanRound(player, reader, world, startX, startY, startZ, clickedFace, material,
+                maxBlocks, new BlockedCells(player, material));
+        planOnSnapshotRounds(round, 0, result,
+                plan -> revalidatePlannedCells(player, plan, material, supportDx, supportDy, supportDz));
+        return result.thenApply(plan -> {
+            planCache.put(playerId, request.key, plan);
+            return plan;
+        });
+    }
+
+    // 补充捕获快照的最大轮数; 每轮沿远离起点的方向捕获的区块数翻倍, 8 轮可以覆盖 255 个区块
+    private static final int MAX_SNAPSHOT_ROUNDS = 8;
+
+    /**
+     * 一次异步规划的参数
+     */
+    private static final class PlanRound {
+        final Player player;
+        final SnapshotBlockReader reader;
+        final World world;
+        final int startX, startY, startZ;
+        final BlockFace face;
+        final Material material;
+        final int maxBlocks;
+        final BlockedCells blocked;
+
+        PlanRound(Player player, SnapshotBlockReader reader, World world, int startX, int startY, int startZ,
+                BlockFace face, Material material, int maxBlocks, BlockedCells blocked) {
+            this.player = player;
+            this.reader = reader;
+            this.world = world;
+            this.startX = startX;
+            this.startY = startY;
+            this.startZ = startZ;
+            this.face = face;
+            this.material = material;
+            this.maxBlocks = maxBlocks;
+            this.blocked = blocked;
+        }
+    }
+
+    /**
+     * 在工作线程上规划, 回到玩家所在线程后检查是否读取到了尚未捕获的区块:
+     * 有则捕获这些区块(以及同方向上更远的区块)后重新规划, 否则交给 revalidate 复核。
+     * 超出轮数或区块不可用时, 这些边界位置计入截断数量。
+     * 复核后有位置被保护或实体排除时, 同样回到工作线程绕开这些位置重新规划, 玩家线程上只做检查。
+     */
+    private void planOnSnapshotRounds(PlanRound round, int attempt, CompletableFuture<PlacementPlan> result,
+            Function<PlacementPlan, PlacementPlan> revalidate) {
+        // 工作线程只在提交之后读取障碍集合, 玩家线程只在规划完成之后修改
+        asyncPlanner.submit(() -> planOnSnapshot(round.reader, round.world, round.startX, round.startY,
+                round.startZ, round.face, round.material, round.maxBlocks, round.blocked.cells))
+                .whenComplete((planned, error) -> VersionHelper.runAtEntity(plugin, round.player, () -> {
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                        return;
+                    }
+                    try {
+                        int[][] missing = round.reader.takeMissing();
+                        if (missing.length > 0 && attempt < MAX_SNAPSHOT_ROUNDS && round.player.isOnline()
+                                && captureMissing(round, missing, 1 << attempt)) {
+                            planOnSnapshotRounds(round, attempt + 1, result, revalidate);
+                            return;
+                        }
+
+                        PlacementPlan plan = revalidate.apply(planned);
+                        if (!round.blocked.check(plan)) {
+                            if (round.blocked.nextRound()) {
+                                planOnSnapshotRounds(round, attempt, result, revalidate);
+                                return;
+                            }
+                            plan = round.blocked.removeFrom(plan);
+                        }
+                        result.complete(plan);
+                    } catch (Exception e) {
+                        result.completeExceptionally(e);
+                    }
+                }));
+    }
+
+    /**
+     * 捕获缺少的区块, 并沿远离起点的方向多捕获 reach - 1 个区块
+     * @return 是否新增了快照
+     */
+    private static boolean captureMissing(PlanRound round, int[][] missing, int reach) {
+        int originChunkX = round.startX >> 4;
+        int originChunkZ = round.startZ >> 4;
+        boolean captured = false;
+        for (int[] chunk : missing) {
+            int dx = Integer.signum(chunk[0] - originChunkX);
+            int dz = Integer.signum(chunk[1] - originChunkZ);
+            for (int i = 0; i < reach; i++) {
+                captured |= round.reader.capture(chunk[0] + dx * i, chunk[1] + dz * i);
+                if (dx == 0 && dz == 0) {
+                    break;
+                }
+            }
+        }
+        return captured;
+    }
 
+    /**
+     * 放置前的检查, 返回本次规划的最大方块数和缓存键, 无法放置时返回 null
+     */
+    private PlanRequest resolvePlanRequest(Player player, Block clickedBlock, BlockFace clickedFace,
+            ItemStack wandItem) {
         WandType wandType = wandItemManager.getWandType(wandItem);
         if (wandType == null)
-            return locations;
+            return null;
 
         // 检查手杖是否启用
         if (wandConfigManager != null && !wandConfigManager.isEnabled(wandType)) {
-            return locations;
+            return null;
         }
 
         Material targetMaterial = clickedBlock.getType();
         if (!isPlaceableMaterial(targetMaterial)) {
-            return locations;
+            return null;
         }
 
         int availableBlocks = countAvailableBlocks(player, targetMaterial);
         if (availableBlocks <= 0) {
-            return locations;
+            return null;
         }
 
         // 从配置获取最大方块数
         int baseMaxBlocks = getConfigMaxBlocks(wandType);
         int maxBlocks;
+        int enchantLevel = 0;
         if (enchantmentManager != null) {
+            enchantLevel = enchantmentManager.getEnchantmentLevel(wandItem, WandEnchantment.BUILDING_EXTENSION);
             maxBlocks = enchantmentManager.calculateBonusBlocks(wandItem, baseMaxBlocks);
         } else {
             maxBlocks = baseMaxBlocks;
         }
         maxBlocks = Math.min(maxBlocks, availableBlocks);
 
-        Location startLocation = clickedBlock.getRelative(clickedFace).getLocation();
-
-        if (!canReplace(startLocation.getBlock().getType())) {
-            return locations;
+        if (maxBlocks <= 0 || !canReplace(clickedBlock.getRelative(clickedFace).getType())) {
+            return null;
         }
 
-        locations = expandPlacementArea(player, clickedBlock, clickedFace, targetMaterial, maxBlocks);
+        PlanCache.PlanKey key = new PlanCache.PlanKey(clickedBlock.getWorld(),
+                clickedBlock.getX(), clickedBlock.getY(), clickedBlock.getZ(), clickedFace, targetMaterial,
+                wandType.getId(), enchantLevel, availableBlocks);
+        return new PlanRequest(key, maxBlocks);
+    }
+
+    /**
+     * 复核缓存中的规划: 只重新读取目标和支撑方块, 保护和实体由放置阶段检查
+     */
+    private PlacementPlan reverifyCachedPlan(PlacementPlan cached, BlockFace clickedFace, Material material) {
+        World world = cached.getWorld();
+        BlockFace supportFace = clickedFace.getOppositeFace();
+        int supportDx = supportFace.getModX();
+        int supportDy = supportFace.getModY();
+        int supportDz = supportFace.getModZ();
+
+        ChunkLoadGuard chunks = ChunkLoadGuard.of(world);
+        PlacementPlan plan = cached.filter(chunks.wrap(supportDx, supportDz,
+                (x, y, z) -> canPlaceAtPrecise(world, x, y, z, material, supportDx, supportDy, supportDz)));
+        return plan.withCutOffCells(cached.getCutOffCells() + chunks.getCutOffCells());
+    }
+
+    /**
+     * 在区块快照上规划(工作线程), 只检查方块类型和支撑, 保护和实体留给复核阶段
+     * @param blocked 复核时被排除、视为障碍的位置
+     */
+    private PlacementPlan planOnSnapshot(SnapshotBlockReader reader, World world, int startX, int startY, int startZ,
+            BlockFace clickedFace, Material material, int maxBlocks, LongHashSet blocked) {
+        BlockFace supportFace = clickedFace.getOppositeFace();
+        int supportDx = supportFace.getModX();
+        int supportDy = supportFace.getModY();
+        int supportDz = supportFace.getModZ();
+
+        // 捕获快照时未加载的区块同样计入截断数量
+        ChunkLoadGuard chunks = new ChunkLoadGuard(reader::isChunkLoaded);
+        PlanarPlanner.CellTest test = chunks.wrap(supportDx, supportDz,
+                (x, y, z) -> canReplace(reader.getType(x, y, z))
+                        && reader.getType(x + supportDx, y + supportDy, z + supportDz) == material
+                        && (blocked.isEmpty() || !blocked.contains(BlockPos.pack(x, y, z))));
+
+        PlanarPlanner planner = PLANNERS.get();
+        planner.plan(startX, startY, startZ, clickedFace, maxBlocks, test);
+        PlacementPlan plan = planner.toPlan(world);
+        return plan.withCutOffCells(plan.getCutOffCells() + chunks.getCutOffCells());
+    }
+
+    /**
+     * 在拥有线程上复核异步规划的结果(方块和支撑), 保护和实体由 {@link BlockedCells} 处理
+     */
+    private PlacementPlan revalidatePlannedCells(Player player, PlacementPlan planned, Material material,
+            int supportDx, int supportDy, int supportDz) {
+        if (!player.isOnline() || planned.isEmpty()) {
+            return PlacementPlan.empty();
+        }
 
-        return locations;
+        // 规划期间区块可能已被卸载
+        World world = planned.getWorld();
+        ChunkLoadGuard chunks = ChunkLoadGuard.of(world);
+        PlacementPlan plan = planned.filter(chunks.wrap(supportDx, supportDz,
+                (x, y, z) -> canPlaceAtPrecise(world, x, y, z, material, supportDx, supportDy, supportDz)));
+        return plan.withCutOffCells(planned.getCutOffCells() + chunks.getCutOffCells());
     }
 
-    private List<Location> expandPlacementArea(Player player, Block clickedBlock,
+    private PlacementPlan expandPlacementArea(Player player, Block clickedBlock,
             BlockFace clickedFace, Material material, int maxBlocks) {
-        List<Location> result = new ArrayList<>();
-        Set<Location> visited = new HashSet<>();
-        Queue<Block> queue = new LinkedList<>();
+        World world = clickedBlock.getWorld();
+        BlockFace supportFace = clickedFace.getOppositeFace();
+        int supportDx = supportFace.getModX();
+        int supportDy = supportFace.getModY();
+        int supportDz = supportFace.getModZ();
+
+        return fillAroundBlocked(player, material, blocked -> {
+            // 可替换且背后是相同材质的方块, 区块未加载的位置不读取
+            ChunkLoadGuard chunks = ChunkLoadGuard.of(world);
+            PlanarPlanner.CellTest test = chunks.wrap(supportDx, supportDz,
+                    (x, y, z) -> canPlaceAtPrecise(world, x, y, z, material, supportDx, supportDy, supportDz)
+                            && !blocked.contains(BlockPos.pack(x, y, z)));
+
+            PlanarPlanner planner = PLANNERS.get();
+            try {
+                planner.plan(
+                        clickedBlock.getX() + clickedFace.getModX(),
+                        clickedBlock.getY() + clickedFace.getModY(),
+                        clickedBlock.getZ() + clickedFace.getModZ(),
+                        clickedFace, maxBlocks, test);
+            } catch (Exception e) {
+                return PlacementPlan.empty();
+            }
+            PlacementPlan plan = planner.toPlan(world);
+            return plan.withCutOffCells(plan.getCutOffCells() + chunks.getCutOffCells());
+        });
+    }
 
-        BlockFace[] expandDirections = getExpandDirections(clickedFace);
+    // 排除受保护或被实体占据的位置后重新填充的最大轮数
+    private static final int MAX_BLOCKED_ROUNDS = 8;
 
-        try {
-            Block startBlock = clickedBlock.getRelative(clickedFace);
-            Material startType = startBlock.getType();
-            if (canReplace(startType)) {
-                queue.add(startBlock);
-                visited.add(startBlock.getLocation());
+    /**
+     * 把受保护或被实体占据的位置当作障碍重新填充, 直到结果不再变化(同步规划)
+     * @param fill 以给定的障碍位置规划一次
+     */
+    private PlacementPlan fillAroundBlocked(Player player, Material material,
+            Function<LongHashSet, PlacementPlan> fill) {
+        BlockedCells blocked = new BlockedCells(player, material);
+        PlacementPlan plan = fill.apply(blocked.cells);
+        while (!blocked.check(plan)) {
+            if (!blocked.nextRound()) {
+                return blocked.removeFrom(plan);
             }
-        } catch (Exception e) {
-            return result;
+            plan = fill.apply(blocked.cells);
         }
+        return plan;
+    }
 
-        while (!queue.isEmpty() && result.size() < maxBlocks) {
-            Block current = queue.poll();
-            if (current == null)
-                continue;
+    /**
+     * 重新填充时视为障碍的位置
+     * 这样受保护或被实体占据的位置不会占用方块数量, 只能经过它们到达的位置也不会保留。
+     * 每个位置只检查一次; 超出轮数时直接移除最后一轮发现的位置。检查必须在玩家所在线程上进行
+     */
+    private final class BlockedCells {
+        private final Player player;
+        private final Material material;
+        private final LongHashSet cells = new LongHashSet(16);
+        private final LongHashSet passed = new LongHashSet(16);
+        private int round = 1;
+
+        private BlockedCells(Player player, Material material) {
+            this.player = player;
+            this.material = material;
+        }
 
-            Location currentLoc = current.getLocation();
+        /**
+         * 检查计划中尚未检查过的位置, 被拒绝的位置加入障碍
+         * @return 没有新的障碍(计划可以直接使用)时返回 true
+         */
+        private boolean check(PlacementPlan plan) {
+            PlacementPlan unchecked = plan.filter((x, y, z) -> !passed.contains(BlockPos.pack(x, y, z)));
+            PlacementPlan allowed = removeBlocked(player, unchecked, material);
+            allowed.forEachCell((x, y, z) -> passed.add(BlockPos.pack(x, y, z)));
+            if (allowed.size() == unchecked.size()) {
+                return true;
+            }
 
-            try {
-                if (!canPlaceAtPrecise(player, currentLoc, material, clickedFace)) {
-                    continue;
+            unchecked.forEachCell((x, y, z) -> {
+                long packed = BlockPos.pack(x, y, z);
+                if (!passed.contains(packed)) {
+                    cells.add(packed);
                 }
-            } catch (Exception e) {
-                continue;
-            }
+            });
+            return false;
+        }
 
-            result.add(currentLoc);
+        /**
+         * @return 是否还可以再重新填充一轮
+         */
+        private boolean nextRound() {
+            return round++ < MAX_BLOCKED_ROUNDS;
+        }
 
-            for (BlockFace direction : expandDirections) {
-                try {
-                    Block neighbor = current.getRelative(direction);
-                    if (neighbor == null)
-                        continue;
+        private PlacementPlan removeFrom(PlacementPlan plan) {
+            return plan.filter((x, y, z) -> !cells.contains(BlockPos.pack(x, y, z)));
+        }
+    }
 
-                    Location neighborLoc = neighbor.getLocation();
+    /**
+     * 移除受保护或被实体占据的位置, 保护整批检查, 实体只查询一次
+     */
+    private PlacementPlan removeBlocked(Player player, PlacementPlan plan, Material material) {
+        plan = filterProtected(player, plan, material, false);
+        if (plan.isEmpty()) {
+            return plan;
+        }
 
-                    if (!visited.contains(neighborLoc)) {
-                        visited.add(neighborLoc);
+        EntityCollisionIndex entities = buildEntityIndex(plan);
+        if (entities.isEmpty()) {
+            return plan;
+        }
+        return plan.filter((x, y, z) -> !entities.isBlocked(x, y, z));
+    }
 
-                        Material neighborType = neighbor.getType();
-                        if (canReplace(neighborType)) {
-                            Block supportBlock = neighbor.getRelative(clickedFace.getOppositeFace());
-                            if (supportBlock != null && supportBlock.getType() == material) {
-                                queue.add(neighbor);
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    continue;
-                }
-            }
+    /**
+     * 批量检查保护, 返回允许放置的位置
+     * @param forPlacement 是否是实际放置前的检查; 规划(预览)阶段只做不触发事件的轻量检查
+     */
+    public PlacementPlan filterProtected(Player player, PlacementPlan plan, Material material,
+            boolean forPlacement) {
+        if (plan.isEmpty()) {
+            return plan;
         }
 
-        return result;
+        List<Location> locations = plan.asLocations();
+        BitSet allowed = forPlacement
+                ? protectionChecker.canPlaceAll(player, locations, material, true)
+                : protectionChecker.canPlaceAllPreview(player, locations, material);
+        if (allowed.cardinality() == plan.size()) {
+            return plan;
+        }
+        return plan.retain(allowed);
     }
 
-    private boolean canPlaceAtPrecise(Player player, Location location, Material material, BlockFace clickedFace) {
+    /**
+     * 为一批放置位置建立实体碰撞索引
+     */
+    public EntityCollisionIndex buildEntityIndex(PlacementPlan plan) {
         try {
-            Block block = location.getBlock();
-            if (block == null)
-                return false;
-
-            Material blockType = block.getType();
-            if (!canReplace(blockType)) {
-                return false;
-            }
+            return EntityCollisionIndex.build(plan, this::isBlockingEntity);
+        } catch (Exception e) {
+            // 如果检测失败，默认允许放置
+            return EntityCollisionIndex.empty();
+        }
+    }
 
-            if (!protectionChecker.canPlace(player, location, material)) {
-                return false;
-            }
+    private boolean isChunkLoaded(Location loc) {
+        World world = loc.getWorld();
+        return world != null && world.isChunkLoaded(loc.getBlockX() >> 4, loc.getBlockZ() >> 4);
+    }
 
-            // 检查是否有实体占据该位置
-            if (hasBlockingEntity(location)) {
+    /**
+     * 检查方块和支撑, 保护和实体在规划结束后整批检查
+     */
+    private boolean canPlaceAtPrecise(World world, int x, int y, int z, Material material,
+            int supportDx, int supportDy, int supportDz) {
+        try {
+            if (!canReplace(VersionHelper.getBlockType(world, x, y, z))) {
                 return false;
             }
 
-            Block supportBlock = block.getRelative(clickedFace.getOppositeFace());
-            if (supportBlock == null)
-                return false;
-
-            return supportBlock.getType() == material;
+            return VersionHelper.getBlockType(world, x + supportDx, y + supportDy, z + supportDz) == material;
         } catch (Exception e) {
             return false;
         }
@@ -243,50 +581,180 @@ public class WandAction {
         }
     }
 
-    public int placeBlocks(Player player, List<Location> locations, Material material, ItemStack wandItem) {
-        if (locations == null || locations.isEmpty()) {
+    /**
+     * 单个位置的放置结果
+     */
+    public enum PlaceResult {
+        PLACED,
+        SKIPPED,
+        OUT_OF_BLOCKS
+    }
+
+    public int placeBlocks(Player player, PlacementPlan plan, Material material, ItemStack wandItem) {
+        if (plan == null || plan.isEmpty()) {
             return 0;
         }
 
+        if (!isUsableWand(wandItem)) {
+            return 0;
+        }
+
+        int placed = 0;
+        PlacementPlan allowed = filterProtected(player, plan, material, true);
+        EntityCollisionIndex entities = buildEntityIndex(allowed);
+        InventoryLedger ledger = openLedger(player, material);
+
+        for (Location loc : allowed.asLocations()) {
+            PlaceResult result = placeSingle(player, loc, material, entities, ledger);
+            if (result == PlaceResult.OUT_OF_BLOCKS) {
+                break;
+            }
+            if (result == PlaceResult.PLACED) {
+                placed++;
+            }
+        }
+
+        ledger.commit();
+
+        finishPlacement(player, plan, wandItem, placed);
+
+        return placed;
+    }
+
+    /**
+     * 检查物品是否是已启用的手杖
+     */
+    public boolean isUsableWand(ItemStack wandItem) {
         WandType wandType = wandItemManager.getWandType(wandItem);
         if (wandType == null)
-            return 0;
+            return false;
 
         // 检查手杖是否启用
-        if (wandConfigManager != null && !wandConfigManager.isEnabled(wandType)) {
-            return 0;
+        return wandConfigManager == null || wandConfigManager.isEnabled(wandType);
+    }
+
+    /**
+     * 在单个位置放置方块并在账本中记账, 调用方负责最后 {@link InventoryLedger#commit()}
+     * 位置应已通过 {@link #filterProtected(Player, PlacementPlan, Material, boolean)} 检查保护
+     * @param entities 本批位置的实体碰撞索引, 见 {@link #buildEntityIndex(PlacementPlan)}
+     * @param ledger 本批放置的材料账本, 见 {@link #openLedger(Player, Material)}
+     */
+    public PlaceResult placeSingle(Player player, Location loc, Material material, EntityCollisionIndex entities,
+            InventoryLedger ledger) {
+        // 规划之后区块可能已被卸载, 不为放置加载区块
+        if (!isChunkLoaded(loc) || !canReplace(loc.getBlock().getType())) {
+            return PlaceResult.SKIPPED;
         }
 
-        int placed = 0;
+        if (!ledger.hasAvailable()) {
+            return PlaceResult.OUT_OF_BLOCKS;
+        }
 
-        for (Location loc : locations) {
-            if (!canReplace(loc.getBlock().getType())) {
-                continue;
-            }
+        // 再次检查实体(因为实体可能在计算后移动到该位置)
+        if (entities.isBlocked(loc)) {
+            return PlaceResult.SKIPPED;
+        }
 
-            if (!hasEnoughBlocks(player, material, 1)) {
-                break;
-            }
+        loc.getBlock().setType(material);
 
-            if (!protectionChecker.canPlace(player, loc, material)) {
-                continue;
-            }
+        ledger.debit(1);
 
-            // 再次检查实体(因为实体可能在计算后移动到该位置)
-            if (hasBlockingEntity(loc)) {
-                continue;
-            }
+        return PlaceResult.PLACED;
+    }
+
+    /**
+     * Folia 下跨区域放置: 在玩家线程上检查保护并预留材料, 方块在各自的区域线程上写入,
+     * 完成后回到玩家线程退还没用完的材料并结算耐久。
+     * 必须在玩家所在线程上调用。
+     * @param onComplete 结算完成后在玩家线程上回调, 参数为实际放置数量
+     */
+    public void placeBlocksAcrossRegions(Player player, PlacementPlan plan, Material material,
+            ItemStack wandItem, IntConsumer onComplete) {
+        if (plan == null || plan.isEmpty() || plugin == null || !isUsableWand(wandItem)) {
+            onComplete.accept(0);
+            return;
+        }
+
+        // 保护检查会触发 BlockPlaceEvent, 只能在玩家线程上进行, 区域线程只放置已通过检查的位置
+        PlacementPlan allowed = filterProtected(player, plan, material, true);
+        InventoryLedger.Reservation reservation = new InventoryLedger.Reservation();
+        reserveBlocks(player, material, allowed.size(), reservation);
+
+        AtomicInteger budget = new AtomicInteger(reservation.remaining());
+        new RegionPartitionedPlacer(plugin, this).place(player, allowed, material, budget, placed -> {
+            reservation.use(placed);
+            refundBlocks(player, material, reservation);
+            finishPlacement(player, plan, wandItem, placed);
+            onComplete.accept(placed);
+        });
+    }
+
+    /**
+     * 在拥有该位置的区域线程上放置方块, 不访问玩家背包, 材料从共享预算中扣减
+     * 位置应已通过 {@link #filterProtected(Player, PlacementPlan, Material, boolean)} 检查保护
+     */
+    public PlaceResult placeInRegion(Player player, Location loc, Material material, AtomicInteger budget,
+            EntityCollisionIndex entities) {
+        if (budget.get() <= 0) {
+            return PlaceResult.OUT_OF_BLOCKS;
+        }
 
-            loc.getBlock().setType(material);
+        if (!isChunkLoaded(loc) || !canReplace(loc.getBlock().getType())) {
+            return PlaceResult.SKIPPED;
+        }
 
-            consumeBlocks(player, material, 1);
+        if (entities.isBlocked(loc)) {
+            return PlaceResult.SKIPPED;
+        }
 
-            placed++;
+        if (budget.decrementAndGet() < 0) {
+            return PlaceResult.OUT_OF_BLOCKS;
         }
 
+        loc.getBlock().setType(material);
+        return PlaceResult.PLACED;
+    }
+
+    /**
+     * 从背包预留材料, 放置前立即扣除, 避免玩家在区域线程放置期间转移材料(必须在玩家所在线程上调用)
+     * @return 实际预留的数量
+     */
+    public int reserveBlocks(Player player, Material material, int amount, InventoryLedger.Reservation reservation) {
+        return openLedger(player, material).reserve(amount, reservation);
+    }
+
+    /**
+     * 退还预留中没有用完的普通方块, 背包放不下的掉落在玩家脚下(必须在玩家所在线程上调用)
+     */
+    public void refundBlocks(Player player, Material material, InventoryLedger.Reservation reservation) {
+        int amount = reservation.takeRefund();
+        int maxStackSize = Math.max(1, material.getMaxStackSize());
+        while (amount > 0) {
+            int stackAmount = Math.min(amount, maxStackSize);
+            amount -= stackAmount;
+            for (ItemStack leftover : player.getInventory().addItem(new ItemStack(material, stackAmount)).values()) {
+                player.getWorld().dropItem(player.getLocation(), leftover);
+            }
+        }
+    }
+
+    /**
+     * 放置结束后的结算: 使规划缓存失效、扣除耐久并播放音效
+     */
+    public void finishPlacement(Player player, PlacementPlan plan, ItemStack wandItem, int placed) {
+        if (placed <= 0) {
+            return;
+        }
+
+        // 放置改变了方块, 与该区域重叠的规划(包括其他玩家的)都需要失效
+        planCache.invalidateArea(plan.getWorld(), plan.getMinX(), plan.getMinY(), plan.getMinZ(),
+                plan.getMaxX(), plan.getMaxY(), plan.getMaxZ());
+
+        WandType wandType = wandItemManager.getWandType(wandItem);
+
         // 检查是否无限耐久
-        boolean isUnbreakable = isWandUnbreakable(wandType);
-        if (placed > 0 && !isUnbreakable) {
+        boolean isUnbreakable = wandType == null || isWandUnbreakable(wandType);
+        if (!isUnbreakable) {
             boolean broken = wandItemManager.consumeDurability(wandItem, placed);
             if (broken) {
                 player.playSound(player.getLocation(), Sound.ENTITY_ITEM_BREAK, 1.0f, 1.0f);
@@ -294,15 +762,15 @@ public class WandAction {
             }
         }
 
-        if (placed > 0) {
-            player.playSound(player.getLocation(), Sound.BLOCK_STONE_PLACE, 1.0f, 1.0f);
-        }
+        player.playSound(player.getLocation(), Sound.BLOCK_STONE_PLACE, 1.0f, 1.0f);
+    }
 
-        return placed;
+    public PlanCache getPlanCache() {
+        return planCache;
     }
 
     private boolean isPlaceableMaterial(Material material) {
-        return material.isBlock() && material.isSolid() && !material.isAir();
+        return MaterialTable.isPlaceable(material);
     }
 
     /**
@@ -329,150 +797,28 @@ public class WandAction {
      * 检查方块是否可以被替换(空气或流体)
      */
     private boolean canReplace(Material material) {
-        if (material == null) return false;
-        if (material.isAir()) return true;
-        // 检查是否是流体
-        return isFluid(material);
+        return MaterialTable.isReplaceable(material);
     }
 
     /**
-     * 检查材质是否是流体
+     * 检查实体是否会阻挡放置
      */
-    private boolean isFluid(Material material) {
-        if (material == null) return false;
-        return material == Material.WATER ||
-               material == Material.LAVA ||
-               material.name().contains("WATER") ||
-               material.name().contains("LAVA");
+    private boolean isBlockingEntity(Entity entity) {
+        return entityIgnoreTable.isBlocking(entity);
     }
 
     /**
-     * 检查指定位置是否有阻挡放置的实体
-     * @param location 要检查的位置
-     * @return 如果有阻挡实体返回 true
+     * 统计玩家可用的方块数量(包括 MagicBlock 和普通方块)
      */
-    private boolean hasBlockingEntity(Location location) {
-        try {
-            // 创建方块的碰撞箱
-            BoundingBox blockBox = BoundingBox.of(
-                location.getBlock().getLocation(),
-                location.getBlock().getLocation().clone().add(1, 1, 1)
-            );
-
-            // 获取该位置附近的所有实体
-            for (Entity entity : location.getWorld().getNearbyEntities(location, 1, 1, 1)) {
-                // 跳过不需要检测的实体类型
-                if (shouldIgnoreEntity(entity)) {
-                    continue;
-                }
-
-                // 检查实体的碰撞箱是否与方块位置重叠
-                BoundingBox entityBox = entity.getBoundingBox();
-                if (blockBox.overlaps(entityBox)) {
-                    return true;
-                }
-            }
-            return false;
-        } catch (Exception e) {
-            // 如果检测失败，默认允许放置
-            return false;
-        }
-    }
-
-    /**
-     * 检查是否应该忽略该实体
-     * @param entity 要检查的实体
-     * @return 如果应该忽略返回 true
-     */
-    private boolean shouldIgnoreEntity(Entity entity) {
-        if (entity == null) return true;
-
-        String typeName = entity.getType().name();
-
-        // 忽略的实体类型(使用字符串比较以兼容不同版本)
-        switch (typeName) {
-            // 掉落物(旧版: DROPPED_ITEM, 新版: ITEM)
-            case "DROPPED_ITEM":
-            case "ITEM":
-            // 经验球
-            case "EXPERIENCE_ORB":
-            // 箭和投射物
-            case "ARROW":
-            case "SPECTRAL_ARROW":
-            case "TRIDENT":
-            case "SNOWBALL":
-            case "EGG":
-            case "ENDER_PEARL":
-            case "FIREBALL":
-            case "SMALL_FIREBALL":
-            case "DRAGON_FIREBALL":
-            case "WITHER_SKULL":
-            case "SHULKER_BULLET":
-            case "LLAMA_SPIT":
-            // 烟花
-            case "FIREWORK_ROCKET":
-            case "FIREWORK": // 旧版名称
-            // 钓鱼浮标(旧版: FISHING_HOOK, 新版: FISHING_BOBBER)
-            case "FISHING_BOBBER":
-            case "FISHING_HOOK":
-            // 末影之眼
-            case "EYE_OF_ENDER":
-            case "ENDER_SIGNAL": // 旧版名称
-            // 药水
-            case "POTION":
-            case "SPLASH_POTION":
-            case "THROWN_EXP_BOTTLE":
-            // 闪电
-            case "LIGHTNING_BOLT":
-            case "LIGHTNING": // 旧版名称
-            // 区域效果云
-            case "AREA_EFFECT_CLOUD":
-            // 末影水晶
-            case "END_CRYSTAL":
-            case "ENDER_CRYSTAL": // 旧版名称
-            // 画和物品展示框
-            case "PAINTING":
-            case "ITEM_FRAME":
-            case "GLOW_ITEM_FRAME":
-            // 拴绳结
-            case "LEASH_KNOT":
-            case "LEASH_HITCH": // 旧版名称
-            // 标记实体
-            case "MARKER":
-            // 展示实体
-            case "BLOCK_DISPLAY":
-            case "ITEM_DISPLAY":
-            case "TEXT_DISPLAY":
-            case "INTERACTION":
-                return true;
-            default:
-                // 对于其他实体，检查是否是活的生物
-                if (entity instanceof LivingEntity) {
-                    return false; // 不忽略活的生物
-                }
-                return true; // 忽略其他非生物实体
-        }
+    public int countAvailableBlocks(Player player, Material material) {
+        return openLedger(player, material).available();
     }
 
     /**
-     * 统计玩家可用的方块数量(包括 MagicBlock 和普通方块)
+     * 扫描一次背包, 创建该材料的账本
      */
-    public int countAvailableBlocks(Player player, Material material) {
-        int magicBlockUses = 0;
-        int normalBlocks = 0;
-
-        // 检查 MagicBlock
-        if (MagicBlockHook.isEnabled() && canUseMagicBlock(player)) {
-            magicBlockUses = MagicBlockHook.countMagicBlockUsesInInventory(player, material);
-            if (magicBlockUses == Integer.MAX_VALUE) {
-                return Integer.MAX_VALUE; // 无限使用
-            }
-        }
-
-        // 统计普通方块
-        normalBlocks = countNormalMaterialInInventory(player, material);
-
-        return magicBlockUses + normalBlocks;
+    public InventoryLedger openLedger(Player player, Material material) {
+        return new InventoryLedger(player.getInventory(), material, canUseMagicBlock(player), useMagicBlockFirst);
     }
 
     /**
@@ -527,51 +873,25 @@ public class WandAction {
     }
 
     /**
-     * 消耗方块(优先使用 MagicBlock)
+     * 消耗方块(按配置优先使用 MagicBlock)
      */
     private void consumeBlocks(Player player, Material material, int amount) {
-        int remaining = amount;
-
-        // 如果启用了 MagicBlock 且配置为优先使用
-        if (useMagicBlockFirst && MagicBlockHook.isEnabled() && canUseMagicBlock(player)) {
-            int consumed = MagicBlockHook.consumeMagicBlockUses(player, material, remaining);
-            remaining -= consumed;
-        }
+        InventoryLedger ledger = openLedger(player, material);
+        ledger.debit(amount);
+        ledger.commit();
+    }
 
-        // 如果还有剩余，使用普通方块
-        if (remaining > 0) {
-            removeNormalMaterialFromInventory(player, material, remaining);
-        }
+    private void removeMaterialFromInventory(Player player, Material material, int amount) {
+        consumeBlocks(player, material, amount);
     }
 
-    /**
-     * 从背包中移除普通方块(排除 MagicBlock)
-     */
-    private void removeNormalMaterialFromInventory(Player player, Material material, int amount) {
-        PlayerInventory inventory = player.getInventory();
-        int remaining = amount;
+    private static final class PlanRequest {
+        private final PlanCache.PlanKey key;
+        private final int maxBlocks;
 
-        for (int i = 0; i < inventory.getSize() && remaining > 0; i++) {
-            ItemStack item = inventory.getItem(i);
-            if (item != null && item.getType() == material) {
-                // 跳过 MagicBlock
-                if (MagicBlockHook.isEnabled() && MagicBlockHook.isMagicBlock(item)) {
-                    continue;
-                }
-                
-                int itemAmount = item.getAmount();
-                if (itemAmount <= remaining) {
-                    inventory.setItem(i, null);
-                    remaining -= itemAmount;
-                } else {
-                    item.setAmount(itemAmount - remaining);
-                    remaining = 0;
-                }
-            }
+        private PlanRequest(PlanCache.PlanKey key, int maxBlocks) {
+            this.key = key;
+            this.maxBlocks = maxBlocks;
         }
     }
-
-    private void removeMaterialFromInventory(Player player, Material material, int amount) {
-        consumeBlocks(player, material, amount);
-    }
-}
\ No newline at end of file
+}
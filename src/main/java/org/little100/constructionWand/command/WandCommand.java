@@ -116,6 +116,11 @@ public class WandCommand implements CommandExecutor, TabCompleter {
         ItemStack wand = plugin.getRecipeManager().createWandFromConfig(wandType);
         target.getInventory().addItem(wand);
 
+        // 直接放入背包不会触发手持物品事件, 需要加入预览时间轮
+        if (plugin.getWandListener() != null) {
+            plugin.getWandListener().trackPreview(target);
+        }
+
         String wandName = i18n.get("wand." + wandType.getId() + ".name");
         sender.sendMessage(i18n.get("message.wand-given", target.getName(), wandName));
         if (target != sender) {
@@ -0,0 +1,81 @@
+package org.little100.constructionWand.listener;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+import org.little100.constructionWand.protection.ProtectionCache;
+
+/**
+ * 保护缓存失效监听器
+ * 玩家退出或切换世界时清除该玩家的缓存; 已安装的领地插件的领地/信任变化事件会清空整个缓存
+ */
+public class ProtectionCacheListener implements Listener {
+
+    /**
+     * 各领地插件的领地变化事件, 未安装的插件会被跳过
+     */
+    private static final String[] CLAIM_EVENTS = {
+            // GriefPrevention
+            "me.ryanhamshire.GriefPrevention.events.ClaimCreatedEvent",
+            "me.ryanhamshire.GriefPrevention.events.ClaimDeletedEvent",
+            "me.ryanhamshire.GriefPrevention.events.ClaimModifiedEvent",
+            "me.ryanhamshire.GriefPrevention.events.ClaimResizeEvent",
+            "me.ryanhamshire.GriefPrevention.events.TrustChangedEvent",
+            // Towny
+            "com.palmergames.bukkit.towny.event.TownClaimEvent",
+            "com.palmergames.bukkit.towny.event.town.TownUnclaimEvent",
+            "com.palmergames.bukkit.towny.event.TownAddResidentEvent",
+            "com.palmergames.bukkit.towny.event.TownRemoveResidentEvent",
+            // Lands
+            "me.angeschossen.lands.api.events.ChunkPostClaimEvent",
+            "me.angeschossen.lands.api.events.ChunkDeleteEvent",
+            "me.angeschossen.lands.api.events.LandTrustPlayerEvent",
+            "me.angeschossen.lands.api.events.LandUntrustPlayerEvent",
+            // Residence
+            "com.bekvon.bukkit.residence.event.ResidenceCreationEvent",
+            "com.bekvon.bukkit.residence.event.ResidenceDeleteEvent",
+            "com.bekvon.bukkit.residence.event.ResidenceFlagChangeEvent",
+            "com.bekvon.bukkit.residence.event.ResidenceSizeChangeEvent"
+    };
+
+    private final ProtectionCache cache;
+
+    public ProtectionCacheListener(ProtectionCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * 注册已安装的领地插件的变化事件
+     * @return 注册成功的事件数量
+     */
+    public int registerClaimEvents(Plugin plugin) {
+        int registered = 0;
+        for (String className : CLAIM_EVENTS) {
+            try {
+                Class<? extends Event> eventClass = Class.forName(className).asSubclass(Event.class);
+                plugin.getServer().getPluginManager().registerEvent(eventClass, this, EventPriority.MONITOR,
+                        (listener, event) -> cache.clear(), plugin, true);
+                registered++;
+            } catch (ClassNotFoundException | LinkageError | ClassCastException e) {
+                // 插件未安装或版本不同
+            } catch (Exception e) {
+                plugin.getLogger().warning("无法监听领地事件 " + className + ": " + e.getMessage());
+            }
+        }
+        return registered;
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        cache.invalidate(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        cache.invalidate(event.getPlayer().getUniqueId());
+    }
+}
@@ -12,24 +12,35 @@ import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
 import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.entity.EntityPickupItemEvent;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.event.player.PlayerItemHeldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerSwapHandItemsEvent;
 import org.bukkit.inventory.EquipmentSlot;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.util.RayTraceResult;
+import org.little100.constructionWand.action.PlacementPlan;
+import org.little100.constructionWand.action.PlacementScheduler;
 import org.little100.constructionWand.action.WandAction;
 import org.little100.constructionWand.i18n.I18nManager;
 import org.little100.constructionWand.preview.PreviewManager;
+import org.little100.constructionWand.preview.PreviewWheel;
+import org.little100.constructionWand.utils.MaterialTable;
 import org.little100.constructionWand.utils.VersionHelper;
 import org.little100.constructionWand.wand.WandItemManager;
 import org.little100.constructionWand.wand.WandType;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class WandListener implements Listener {
 
@@ -38,13 +49,23 @@ public class WandListener implements Listener {
     private final WandAction wandAction;
     private final PreviewManager previewManager;
     private final I18nManager i18n;
+    private PlacementScheduler placementScheduler;
 
     private final Map<UUID, Long> cooldowns = new HashMap<>();
+    private final Set<UUID> pendingPreviews = ConcurrentHashMap.newKeySet();
+    // 最近一次规划时量化后的视角, 视角不变且规划未失效时不重新规划
+    private final Map<UUID, Long> previewViews = new ConcurrentHashMap<>();
     private long cooldownTicks = 10; // 默认 10 tick = 0.5 秒
     private long cooldownMs = cooldownTicks * 50;
 
     private int previewTaskId = -1;
 
+    // 视角量化精度: 位置 1/8 格, 角度 0.5 度
+    private static final double VIEW_POSITION_STEPS = 8.0;
+    private static final float VIEW_ANGLE_STEPS = 2.0f;
+    // 手持手杖的玩家按 tick 分散刷新
+    private volatile PreviewWheel previewWheel = new PreviewWheel(PreviewManager.DEFAULT_REFRESH_TICKS);
+
     public WandListener(WandItemManager wandItemManager, WandAction wandAction, PreviewManager previewManager,
             I18nManager i18n) {
         this.wandItemManager = wandItemManager;
@@ -56,9 +77,14 @@ public class WandListener implements Listener {
     public void setPlugin(Plugin plugin) {
         this.plugin = plugin;
         loadCooldownConfig();
+        loadPreviewConfig();
         startPreviewUpdateTask();
     }
 
+    public void setPlacementScheduler(PlacementScheduler placementScheduler) {
+        this.placementScheduler = placementScheduler;
+    }
+
     /**
      * 从配置加载使用间隔
      */
@@ -69,12 +95,65 @@ public class WandListener implements Listener {
         }
     }
 
+    /**
+     * 从配置加载预览刷新周期, 周期变化时按新周期重建时间轮, 保留当前的成员
+     */
+    public void loadPreviewConfig() {
+        if (plugin != null) {
+            int refreshTicks = Math.max(1, plugin.getConfig().getInt("preview.refresh-ticks",
+                    PreviewManager.DEFAULT_REFRESH_TICKS));
+            previewManager.setRefreshTicks(refreshTicks);
+
+            PreviewWheel current = previewWheel;
+            if (current.getPeriod() != refreshTicks) {
+                PreviewWheel wheel = new PreviewWheel(refreshTicks);
+                for (UUID playerId : current.getMembers()) {
+                    wheel.add(playerId);
+                }
+                previewWheel = wheel;
+            }
+        }
+    }
+
+    /**
+     * 手持物品可能变化时加入时间轮, 下一次刷新时再确认是否手持手杖
+     * 只由事件驱动, 不轮询: 其他插件直接设置手持物品(setItemInHand 等)不会触发事件,
+     * 玩家要在下一次切换、交换或使用手杖时才会出现预览
+     */
+    public void trackPreview(Player player) {
+        previewWheel.add(player.getUniqueId());
+        // 背包变化会改变可放置数量, 需要重新规划
+        previewViews.remove(player.getUniqueId());
+    }
+
+    /**
+     * 量化后的视角(世界、眼睛位置、朝向和手持槽位)
+     */
+    private static long viewKey(Player player) {
+        Location eye = player.getEyeLocation();
+        long key = eye.getWorld() != null ? eye.getWorld().getUID().hashCode() : 0;
+        key = key * 31 + (long) Math.floor(eye.getX() * VIEW_POSITION_STEPS);
+        key = key * 31 + (long) Math.floor(eye.getY() * VIEW_POSITION_STEPS);
+        key = key * 31 + (long) Math.floor(eye.getZ() * VIEW_POSITION_STEPS);
+        key = key * 31 + Math.round(eye.getYaw() * VIEW_ANGLE_STEPS);
+        key = key * 31 + Math.round(eye.getPitch() * VIEW_ANGLE_STEPS);
+        key = key * 31 + player.getInventory().getHeldItemSlot();
+        return key;
+    }
+
     private void startPreviewUpdateTask() {
         if (plugin == null)
             return;
 
+        // 每个 tick 只刷新时间轮中的一格, 每个玩家仍然每个周期刷新一次
         Runnable previewTask = () -> {
-            for (Player player : Bukkit.getOnlinePlayers()) {
+            PreviewWheel wheel = previewWheel;
+            for (UUID playerId : wheel.advance()) {
+                Player player = Bukkit.getPlayer(playerId);
+                if (player == null) {
+                    wheel.remove(playerId);
+                    continue;
+                }
                 if (VersionHelper.isFolia()) {
 
                     VersionHelper.runAtEntity(plugin, player, () -> {
@@ -91,9 +170,28 @@ public class WandListener implements Listener {
         };
 
         if (VersionHelper.isFolia()) {
-            VersionHelper.runTaskTimer(plugin, previewTask, 1L, 10L);
+            VersionHelper.runTaskTimer(plugin, previewTask, 1L, 1L);
         } else {
-            previewTaskId = Bukkit.getScheduler().runTaskTimer(plugin, previewTask, 1L, 10L).getTaskId();
+            previewTaskId = Bukkit.getScheduler().runTaskTimer(plugin, previewTask, 1L, 1L).getTaskId();
+        }
+    }
+
+    /**
+     * 启用插件时已在线的玩家没有加入事件, 扫描一次手持手杖的玩家
+     */
+    public void trackOnlinePlayers() {
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            if (VersionHelper.isFolia()) {
+                VersionHelper.runAtEntity(plugin, player, () -> trackIfHoldingWand(player));
+            } else {
+                trackIfHoldingWand(player);
+            }
+        }
+    }
+
+    private void trackIfHoldingWand(Player player) {
+        if (player.isOnline() && wandItemManager.isWand(player.getInventory().getItemInMainHand())) {
+            trackPreview(player);
         }
     }
 
@@ -108,9 +206,11 @@ public class WandListener implements Listener {
 
             if (!wandItemManager.isWand(itemInHand)) {
 
-                if (!previewManager.getPreviewLocations(player).isEmpty()) {
+                if (!previewManager.getPreviewPlan(player).isEmpty()) {
                     previewManager.clearPreview(player);
                 }
+                previewWheel.remove(player.getUniqueId());
+                previewViews.remove(player.getUniqueId());
                 return;
             }
 
@@ -128,6 +228,16 @@ public class WandListener implements Listener {
                 return;
             }
 
+            // 视角没有变化, 且规划范围内没有方块变化(规划缓存仍然有效)时只刷新显示
+            UUID playerId = player.getUniqueId();
+            long viewKey = viewKey(player);
+            Long lastView = previewViews.get(playerId);
+            if (lastView != null && lastView == viewKey && wandAction.getPlanCache().contains(playerId)
+                    && !previewManager.getPreviewPlan(player).isEmpty()) {
+                previewManager.refreshParticlePreview(player);
+                return;
+            }
+
             // 首先尝试不穿透流体的射线追踪
             RayTraceResult rayTrace = null;
             Block targetBlock = null;
@@ -142,7 +252,7 @@ public class WandListener implements Listener {
                     Material hitMaterial = hitBlock.getType();
                     
                     // 如果击中的是流体，继续穿透找实体方块
-                    if (isFluid(hitMaterial)) {
+                    if (MaterialTable.isFluid(hitMaterial)) {
                         // 使用 SOURCE_ONLY 模式，只检测流体源方块
                         RayTraceResult solidTrace = player.rayTraceBlocks(5.0, FluidCollisionMode.NEVER);
                         if (solidTrace != null && solidTrace.getHitBlock() != null) {
@@ -172,27 +282,47 @@ public class WandListener implements Listener {
                 return;
             }
 
-            if (targetMaterial == null || targetMaterial.isAir() || isFluid(targetMaterial)) {
+            if (targetMaterial == null || MaterialTable.isReplaceable(targetMaterial)) {
                 previewManager.clearPreview(player);
                 return;
             }
 
-            List<Location> locations;
+            // 上一次的异步规划还没完成时跳过本次刷新
+            if (!pendingPreviews.add(playerId)) {
+                return;
+            }
+
+            Material previewMaterial = targetMaterial;
+            // 准星指向的放置位置, 细节层次按到这里的距离计算
+            int focusX = targetBlock.getX() + targetFace.getModX();
+            int focusY = targetBlock.getY() + targetFace.getModY();
+            int focusZ = targetBlock.getZ() + targetFace.getModZ();
+            CompletableFuture<PlacementPlan> future;
             try {
-                locations = wandAction.calculatePlaceableLocations(
+                future = wandAction.calculatePlaceableLocationsAsync(
                         player, targetBlock, targetFace, itemInHand);
             } catch (Exception e) {
-
+                pendingPreviews.remove(playerId);
                 previewManager.clearPreview(player);
                 return;
             }
 
-            if (locations == null || locations.isEmpty()) {
-                previewManager.clearPreview(player);
-                return;
-            }
+            // Future 总是在玩家所在线程上完成
+            future.whenComplete((plan, error) -> {
+                pendingPreviews.remove(playerId);
+                try {
+                    if (error != null || plan == null || plan.isEmpty()
+                            || !wandItemManager.isWand(player.getInventory().getItemInMainHand())) {
+                        previewManager.clearPreview(player);
+                        return;
+                    }
 
-            previewManager.updatePreview(player, locations, targetMaterial);
+                    previewManager.updatePreview(player, plan, previewMaterial, focusX, focusY, focusZ);
+                    previewViews.put(playerId, viewKey);
+                } catch (Exception e) {
+
+                }
+            });
         } catch (Exception e) {
 
         }
@@ -200,12 +330,7 @@ public class WandListener implements Listener {
 
     @EventHandler(priority = EventPriority.HIGH)
     public void onPlayerInteract(PlayerInteractEvent event) {
-
-        if (event.getAction() != Action.RIGHT_CLICK_BLOCK) {
-            return;
-        }
-
-        if (event.getHand() != EquipmentSlot.HAND) {
+        if (event.getAction() == Action.PHYSICAL) {
             return;
         }
 
@@ -216,6 +341,17 @@ public class WandListener implements Listener {
             return;
         }
 
+        // 没有经过其他事件拿到手杖时, 使用手杖会加入时间轮; 交互本身不改变背包, 保留视角不重新规划
+        previewWheel.add(player.getUniqueId());
+
+        if (event.getAction() != Action.RIGHT_CLICK_BLOCK) {
+            return;
+        }
+
+        if (event.getHand() != EquipmentSlot.HAND) {
+            return;
+        }
+
         if (!player.hasPermission("constructionwand.use")) {
             player.sendMessage(i18n.get("message.no-permission"));
             return;
@@ -239,6 +375,13 @@ public class WandListener implements Listener {
             return;
         }
 
+        // 虚影方块只存在于客户端, 点击虚影等同于从该位置的点击面点击背后的支撑方块
+        BlockFace ghostFace = previewManager.getGhostFace(player, clickedBlock);
+        if (ghostFace != null) {
+            clickedBlock = clickedBlock.getRelative(ghostFace.getOppositeFace());
+            clickedFace = ghostFace;
+        }
+
         event.setCancelled(true);
 
         UUID playerId = player.getUniqueId();
@@ -249,6 +392,12 @@ public class WandListener implements Listener {
             return;
         }
 
+        // 上一次的分批放置还没完成
+        if (placementScheduler != null && placementScheduler.hasPendingJob(player)) {
+            player.sendMessage(i18n.get("message.place-in-progress"));
+            return;
+        }
+
         handlePlacement(player, clickedBlock, clickedFace, itemInHand);
 
         cooldowns.put(playerId, currentTime);
@@ -257,19 +406,47 @@ public class WandListener implements Listener {
     private void handlePlacement(Player player, Block clickedBlock, BlockFace clickedFace, ItemStack wandItem) {
         Material targetMaterial = clickedBlock.getType();
 
-        List<Location> locations = wandAction.calculatePlaceableLocations(
-                player, clickedBlock, clickedFace, wandItem);
+        // 复用预览阶段的规划(条件一致时), 只需复核
+        wandAction.calculatePlaceableLocationsAsync(player, clickedBlock, clickedFace, wandItem, true)
+                .whenComplete((plan, error) -> {
+                    if (plan != null && plan.getCutOffCells() > 0) {
+                        player.sendMessage(i18n.get("message.place-cut-off", plan.getCutOffCells()));
+                    }
 
-        if (locations.isEmpty()) {
-            player.sendMessage(i18n.get("message.no-place"));
-            return;
-        }
+                    if (error != null || plan == null || plan.isEmpty()) {
+                        player.sendMessage(i18n.get("message.no-place"));
+                        return;
+                    }
 
-        int placed = wandAction.placeBlocks(player, locations, targetMaterial, wandItem);
+                    // 异步规划期间手杖可能已被移走
+                    if (!wandItemManager.isWand(wandItem)) {
+                        return;
+                    }
 
-        if (placed > 0) {
-            player.sendMessage(i18n.get("message.place-success", placed));
-        }
+                    // 大范围放置交给调度器分批执行, 完成时由调度器发送消息
+                    if (placementScheduler != null && placementScheduler.shouldSchedule(plan.size())) {
+                        if (!placementScheduler.submit(player, plan, targetMaterial, wandItem)) {
+                            player.sendMessage(i18n.get("message.place-in-progress"));
+                        }
+                        return;
+                    }
+
+                    // Folia 下计划可能跨越多个区域, 按区域拆分执行
+                    if (VersionHelper.isFolia()) {
+                        wandAction.placeBlocksAcrossRegions(player, plan, targetMaterial, wandItem, placed -> {
+                            if (placed > 0) {
+                                player.sendMessage(i18n.get("message.place-success", placed));
+                            }
+                        });
+                        return;
+                    }
+
+                    int placed = wandAction.placeBlocks(player, plan, targetMaterial, wandItem);
+
+                    if (placed > 0) {
+                        player.sendMessage(i18n.get("message.place-success", placed));
+                    }
+                });
     }
 
     @EventHandler(priority = EventPriority.HIGH)
@@ -288,6 +465,39 @@ public class WandListener implements Listener {
         Player player = event.getPlayer();
         previewManager.clearPreview(player);
         cooldowns.remove(player.getUniqueId());
+        wandAction.getPlanCache().invalidate(player.getUniqueId());
+        trackPreview(player);
+    }
+
+    @EventHandler
+    public void onSwapHandItems(PlayerSwapHandItemsEvent event) {
+        trackPreview(event.getPlayer());
+    }
+
+    @EventHandler
+    public void onInventoryClick(InventoryClickEvent event) {
+        if (event.getWhoClicked() instanceof Player) {
+            trackPreview((Player) event.getWhoClicked());
+        }
+    }
+
+    @EventHandler
+    public void onInventoryDrag(InventoryDragEvent event) {
+        if (event.getWhoClicked() instanceof Player) {
+            trackPreview((Player) event.getWhoClicked());
+        }
+    }
+
+    @EventHandler
+    public void onEntityPickupItem(EntityPickupItemEvent event) {
+        if (event.getEntity() instanceof Player) {
+            trackPreview((Player) event.getEntity());
+        }
+    }
+
+    @EventHandler
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        trackPreview(event.getPlayer());
     }
 
     @EventHandler
@@ -295,6 +505,12 @@ public class WandListener implements Listener {
         Player player = event.getPlayer();
         previewManager.clearPreview(player);
         cooldowns.remove(player.getUniqueId());
+        pendingPreviews.remove(player.getUniqueId());
+        previewWheel.remove(player.getUniqueId());
+        previewViews.remove(player.getUniqueId());
+        if (placementScheduler != null) {
+            placementScheduler.cancel(player);
+        }
     }
 
     public void stopPreviewTask() {
@@ -303,15 +519,4 @@ public class WandListener implements Listener {
             previewTaskId = -1;
         }
     }
-
-    /**
-     * 检查材质是否是流体
-     */
-    private boolean isFluid(Material material) {
-        if (material == null) return false;
-        return material == Material.WATER ||
-               material == Material.LAVA ||
-               material.name().contains("WATER") ||
-               material.name().contains("LAVA");
-    }
 }
\ No newline at end of file
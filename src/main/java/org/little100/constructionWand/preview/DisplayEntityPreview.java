@@ -0,0 +1,252 @@
+package org.little100.constructionWand.preview;
+
+import org.bukkit.Color;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.BlockDisplay;
+import org.bukkit.entity.Display;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.util.Transformation;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+import org.little100.constructionWand.action.PlacementPlan;
+import org.little100.constructionWand.utils.VersionHelper;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 展示实体预览(1.19.4+)
+ * 把平面计划贪心合并为矩形, 每个矩形用一个缩放后的 BLOCK_DISPLAY 表示(染色玻璃 + 发光轮廓),
+ * 只对所属玩家可见。每个玩家的实体放在池中跨更新复用, 多余的实体缩为零保留, 不会反复生成和移除。
+ * 矩形数量超过上限时返回 false, 由调用方改用粒子显示。
+ * Folia 上实体只能在所在区域的线程上修改, 因此不复用: 每次更新通过实体调度器移除旧实体,
+ * 在各矩形所在区域生成新实体。
+ */
+public class DisplayEntityPreview {
+
+    public static final int DEFAULT_MAX_ENTITIES = 64;
+
+    // 向内收缩, 避免与相邻方块的表面重叠闪烁
+    private static final float INSET = 0.01f;
+
+    private static volatile boolean consumerSpawnSupported = true;
+
+    private final Plugin plugin;
+    // Folia 上玩家线程和各区域线程同时访问
+    private final Map<UUID, DisplayState> states = new ConcurrentHashMap<>();
+    private int maxEntities = DEFAULT_MAX_ENTITIES;
+
+    private static final class DisplayState {
+        World world;
+        PlacementPlan plan;
+        BlockData data;
+        Color color;
+        // 每次重新生成时递增, 迟到的生成结果据此丢弃
+        volatile int generation;
+        final List<BlockDisplay> pool = new CopyOnWriteArrayList<>();
+    }
+
+    public DisplayEntityPreview(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * 服务器是否支持展示实体
+     */
+    public static boolean isSupported() {
+        return VersionHelper.isVersionAtLeast(1, 19, 4);
+    }
+
+    public void setMaxEntities(int maxEntities) {
+        this.maxEntities = Math.max(1, maxEntities);
+    }
+
+    /**
+     * 显示或更新玩家的预览实体(在玩家所在线程上调用)
+     * @return 矩形数量超过上限时返回 false, 此时已清除该玩家的实体
+     */
+    public boolean show(Player player, PlacementPlan plan, Color color) {
+        UUID playerId = player.getUniqueId();
+        DisplayState state = states.get(playerId);
+        BlockData data = GhostBlockPreview.glassFor(color);
+        boolean folia = VersionHelper.isFolia();
+
+        // Folia 上不能在玩家线程读取其他区域的实体状态
+        if (state != null && plan.equals(state.plan) && state.data.equals(data) && Objects.equals(state.color, color)
+                && (folia || allValid(state))) {
+            return true;
+        }
+
+        List<int[]> boxes = new ArrayList<>();
+        plan.forEachRectangle((minX, minY, minZ, maxX, maxY, maxZ) -> boxes
+                .add(new int[] { minX, minY, minZ, maxX, maxY, maxZ }));
+        if (boxes.size() > maxEntities) {
+            clear(player);
+            return false;
+        }
+
+        World world = plan.getWorld();
+        if (state == null) {
+            state = new DisplayState();
+            states.put(playerId, state);
+        } else if (state.world != world || folia) {
+            state.generation++;
+            removeAll(state);
+        }
+        state.world = world;
+        state.plan = plan;
+        state.data = data;
+        state.color = color;
+
+        if (folia) {
+            respawnInRegions(player, state, boxes);
+            return true;
+        }
+
+        List<BlockDisplay> pool = state.pool;
+        pool.removeIf(display -> !display.isValid());
+
+        for (int i = 0; i < boxes.size(); i++) {
+            int[] box = boxes.get(i);
+            Location location = new Location(world, box[0], box[1], box[2]);
+            Transformation transformation = transformation(box);
+            if (i < pool.size()) {
+                BlockDisplay display = pool.get(i);
+                display.teleport(location);
+                display.setBlock(data);
+                if (color != null) {
+                    display.setGlowColorOverride(color);
+                }
+                display.setTransformation(transformation);
+            } else {
+                BlockDisplay display = spawn(location, data, color, transformation);
+                pool.add(display);
+                player.showEntity(plugin, display);
+            }
+        }
+
+        // 多余的实体留在池中, 缩为零不显示
+        for (int i = boxes.size(); i < pool.size(); i++) {
+            pool.get(i).setTransformation(transformation(0, 0, 0));
+        }
+        return true;
+    }
+
+    /**
+     * Folia: 在每个矩形所在区域的线程上生成实体, 再回到玩家线程显示给玩家
+     */
+    private void respawnInRegions(Player player, DisplayState state, List<int[]> boxes) {
+        UUID playerId = player.getUniqueId();
+        int generation = state.generation;
+        BlockData data = state.data;
+        Color color = state.color;
+
+        for (int[] box : boxes) {
+            Location location = new Location(state.world, box[0], box[1], box[2]);
+            VersionHelper.runAtLocation(plugin, location, () -> {
+                BlockDisplay display = spawn(location, data, color, transformation(box));
+                // 先加入池再检查, 与 clear 交错时总有一方会移除该实体
+                state.pool.add(display);
+                if (states.get(playerId) != state || state.generation != generation) {
+                    state.pool.remove(display);
+                    display.remove();
+                    return;
+                }
+                VersionHelper.runAtEntity(plugin, player, () -> player.showEntity(plugin, display));
+            });
+        }
+    }
+
+    /**
+     * 生成实体; 在生成回调中完成设置, 实体广播给附近玩家之前就已默认隐藏
+     */
+    private static BlockDisplay spawn(Location location, BlockData data, Color color, Transformation transformation) {
+        Consumer<BlockDisplay> setup = display -> {
+            display.setPersistent(false);
+            display.setVisibleByDefault(false);
+            display.setGlowing(true);
+            display.setBrightness(new Display.Brightness(15, 15));
+            display.setInterpolationDuration(0);
+            display.setBlock(data);
+            if (color != null) {
+                display.setGlowColorOverride(color);
+            }
+            display.setTransformation(transformation);
+        };
+
+        World world = location.getWorld();
+        if (consumerSpawnSupported) {
+            try {
+                return world.spawn(location, BlockDisplay.class, setup);
+            } catch (NoSuchMethodError e) {
+                consumerSpawnSupported = false;
+            }
+        }
+        // 1.20.2 之前只有 org.bukkit.util.Consumer 的版本
+        org.bukkit.util.Consumer<BlockDisplay> legacySetup = setup::accept;
+        return world.spawn(location, BlockDisplay.class, legacySetup);
+    }
+
+    private static Transformation transformation(int[] box) {
+        return transformation(box[3] - box[0] + 1, box[4] - box[1] + 1, box[5] - box[2] + 1);
+    }
+
+    private static Transformation transformation(float sizeX, float sizeY, float sizeZ) {
+        if (sizeX <= 0) {
+            return new Transformation(new Vector3f(), new Quaternionf(), new Vector3f(0, 0, 0), new Quaternionf());
+        }
+        return new Transformation(new Vector3f(INSET, INSET, INSET), new Quaternionf(),
+                new Vector3f(sizeX - 2 * INSET, sizeY - 2 * INSET, sizeZ - 2 * INSET), new Quaternionf());
+    }
+
+    private static boolean allValid(DisplayState state) {
+        for (BlockDisplay display : state.pool) {
+            if (!display.isValid()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 移除玩家的所有预览实体
+     */
+    public void clear(Player player) {
+        DisplayState state = states.remove(player.getUniqueId());
+        if (state != null) {
+            state.generation++;
+            removeAll(state);
+        }
+    }
+
+    public void clearAll() {
+        for (DisplayState state : states.values()) {
+            try {
+                state.generation++;
+                removeAll(state);
+            } catch (Exception e) {
+                // 实体不会保存到区块中, 卸载后自然消失
+            }
+        }
+        states.clear();
+    }
+
+    /**
+     * 移除池中的实体, Folia 上通过实体自己的调度器移除
+     */
+    private void removeAll(DisplayState state) {
+        for (BlockDisplay display : state.pool) {
+            if (VersionHelper.isFolia()) {
+                VersionHelper.runAtEntity(plugin, display, display::remove);
+            } else if (display.isValid()) {
+                display.remove();
+            }
+        }
+        state.pool.clear();
+    }
+}
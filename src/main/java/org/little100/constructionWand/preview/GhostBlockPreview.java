@@ -0,0 +1,252 @@
+package org.little100.constructionWand.preview;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Color;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.Player;
+import org.bukkit.util.BoundingBox;
+import org.little100.constructionWand.action.PlacementPlan;
+import org.little100.constructionWand.utils.BlockPos;
+import org.little100.constructionWand.utils.LongHashSet;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 虚影方块预览
+ * 用只发送给客户端的染色玻璃表示放置范围, 记录每个玩家已发送的位置,
+ * 计划变化时只发送差异(新增位置发送玻璃, 移除位置恢复为真实方块), 清除时全部恢复。
+ * 服务器支持时一次性批量发送(sendBlockChanges), 否则逐个发送。
+ * 客户端把虚影当作真实方块: 点击虚影时服务器收到的是虚影所在的位置(服务器上是空气), 需要通过
+ * {@link #getGhostFace(Player, Block)} 换回背后的支撑方块; 玩家走进虚影时会被服务器拉回。
+ */
+public class GhostBlockPreview {
+
+    private static final Material[] GLASS = {
+            Material.WHITE_STAINED_GLASS, Material.ORANGE_STAINED_GLASS, Material.MAGENTA_STAINED_GLASS,
+            Material.LIGHT_BLUE_STAINED_GLASS, Material.YELLOW_STAINED_GLASS, Material.LIME_STAINED_GLASS,
+            Material.PINK_STAINED_GLASS, Material.GRAY_STAINED_GLASS, Material.LIGHT_GRAY_STAINED_GLASS,
+            Material.CYAN_STAINED_GLASS, Material.PURPLE_STAINED_GLASS, Material.BLUE_STAINED_GLASS,
+            Material.BROWN_STAINED_GLASS, Material.GREEN_STAINED_GLASS, Material.RED_STAINED_GLASS,
+            Material.BLACK_STAINED_GLASS
+    };
+
+    // 与 GLASS 顺序对应的染料颜色
+    private static final int[] GLASS_RGB = {
+            0xF9FFFE, 0xF9801D, 0xC74EBD, 0x3AB3DA, 0xFED83D, 0x80C71F, 0xF38BAA, 0x474F52,
+            0x9D9D97, 0x169C9C, 0x8932B8, 0x3C44AA, 0x835432, 0x5E7C16, 0xB02E26, 0x1D1D21
+    };
+
+    private static volatile boolean batchSupported = true;
+
+    // 与 GLASS 顺序对应, 加载时一次性创建, 之后各线程只读
+    private static final BlockData[] GLASS_DATA = new BlockData[GLASS.length];
+
+    static {
+        for (int i = 0; i < GLASS.length; i++) {
+            GLASS_DATA[i] = GLASS[i].createBlockData();
+        }
+    }
+
+    // Folia 上各玩家在不同的线程上更新
+    private final Map<UUID, GhostState> states = new ConcurrentHashMap<>();
+
+    private static final class GhostState {
+        final World world;
+        final PlacementPlan plan;
+        final BlockData data;
+        final long[] cells;
+        final LongHashSet set;
+
+        GhostState(World world, PlacementPlan plan, BlockData data, long[] cells, LongHashSet set) {
+            this.world = world;
+            this.plan = plan;
+            this.data = data;
+            this.cells = cells;
+            this.set = set;
+        }
+    }
+
+    /**
+     * 显示或更新玩家的虚影方块, 只发送与上一次的差异
+     */
+    public void show(Player player, PlacementPlan plan, Color color) {
+        UUID playerId = player.getUniqueId();
+        GhostState old = states.get(playerId);
+        BlockData data = glassFor(color);
+        World world = plan.getWorld();
+
+        if (old != null && plan.equals(old.plan) && old.data.equals(data)) {
+            return;
+        }
+
+        if (old != null && old.world != world) {
+            clear(player);
+            old = null;
+        }
+
+        // 与玩家碰撞箱重叠的位置不显示, 避免客户端被虚影方块卡住
+        BoundingBox box = player.getBoundingBox();
+        int minX = (int) Math.floor(box.getMinX());
+        int minY = (int) Math.floor(box.getMinY());
+        int minZ = (int) Math.floor(box.getMinZ());
+        int maxX = (int) Math.floor(box.getMaxX());
+        int maxY = (int) Math.floor(box.getMaxY());
+        int maxZ = (int) Math.floor(box.getMaxZ());
+
+        long[] cells = new long[plan.size()];
+        LongHashSet set = new LongHashSet(plan.size());
+        int[] count = { 0 };
+        plan.forEachCell((x, y, z) -> {
+            if (x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ) {
+                return;
+            }
+            long packed = BlockPos.pack(x, y, z);
+            set.add(packed);
+            cells[count[0]++] = packed;
+        });
+        long[] current = Arrays.copyOf(cells, count[0]);
+
+        // 材质没变时, 两次都有的位置不需要重新发送
+        boolean sameData = old != null && old.data.equals(data);
+        long[] added = new long[current.length];
+        int addedCount = 0;
+        for (long packed : current) {
+            if (!sameData || !old.set.contains(packed)) {
+                added[addedCount++] = packed;
+            }
+        }
+
+        long[] removed = new long[old != null ? old.cells.length : 0];
+        int removedCount = 0;
+        if (old != null) {
+            for (long packed : old.cells) {
+                if (!set.contains(packed)) {
+                    removed[removedCount++] = packed;
+                }
+            }
+        }
+
+        states.put(playerId, new GhostState(world, plan, data, current, set));
+        send(player, world, removed, removedCount, null);
+        send(player, world, added, addedCount, data);
+    }
+
+    /**
+     * 方块是否是玩家当前看到的虚影
+     * @return 虚影所属计划的点击面(支撑方块在其反方向), 不是虚影时返回 null
+     */
+    public BlockFace getGhostFace(Player player, Block block) {
+        GhostState state = states.get(player.getUniqueId());
+        if (state == null || block.getWorld() != state.world
+                || !state.set.contains(BlockPos.pack(block.getX(), block.getY(), block.getZ()))) {
+            return null;
+        }
+        return state.plan.getFace();
+    }
+
+    /**
+     * 把玩家看到的虚影方块全部恢复为真实方块
+     */
+    public void clear(Player player) {
+        GhostState state = states.remove(player.getUniqueId());
+        if (state == null) {
+            return;
+        }
+
+        // 玩家已经换了世界时客户端不再保留旧世界的方块
+        if (player.isOnline() && player.getWorld() == state.world) {
+            send(player, state.world, state.cells, state.cells.length, null);
+        }
+    }
+
+    /**
+     * 恢复所有在线玩家的虚影方块
+     */
+    public void clearAll() {
+        for (UUID playerId : new ArrayList<>(states.keySet())) {
+            Player player = Bukkit.getPlayer(playerId);
+            if (player == null) {
+                continue;
+            }
+            try {
+                clear(player);
+            } catch (Exception e) {
+                // Folia 上不在玩家所在区域线程时无法读取方块, 客户端重新加载区块后会恢复
+            }
+        }
+        states.clear();
+    }
+
+    /**
+     * 发送一批方块变化, data 为 null 时发送真实方块
+     */
+    private void send(Player player, World world, long[] cells, int count, BlockData data) {
+        if (count == 0 || world == null) {
+            return;
+        }
+
+        if (batchSupported) {
+            try {
+                List<BlockState> blockStates = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    long packed = cells[i];
+                    int x = BlockPos.unpackX(packed);
+                    int z = BlockPos.unpackZ(packed);
+                    // 未加载的区块重新加载时客户端会收到真实方块
+                    if (!world.isChunkLoaded(x >> 4, z >> 4)) {
+                        continue;
+                    }
+                    BlockState state = world.getBlockAt(x, BlockPos.unpackY(packed), z).getState();
+                    if (data != null) {
+                        state.setBlockData(data);
+                    }
+                    blockStates.add(state);
+                }
+                player.sendBlockChanges(blockStates);
+                return;
+            } catch (NoSuchMethodError e) {
+                batchSupported = false;
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            long packed = cells[i];
+            int x = BlockPos.unpackX(packed);
+            int y = BlockPos.unpackY(packed);
+            int z = BlockPos.unpackZ(packed);
+            if (!world.isChunkLoaded(x >> 4, z >> 4)) {
+                continue;
+            }
+            BlockData blockData = data != null ? data : world.getBlockAt(x, y, z).getBlockData();
+            player.sendBlockChange(new Location(world, x, y, z), blockData);
+        }
+    }
+
+    /**
+     * 选取颜色最接近的染色玻璃
+     */
+    static BlockData glassFor(Color color) {
+        int best = 0;
+        if (color != null) {
+            long bestDistance = Long.MAX_VALUE;
+            for (int i = 0; i < GLASS_RGB.length; i++) {
+                int dr = color.getRed() - (GLASS_RGB[i] >> 16 & 0xFF);
+                int dg = color.getGreen() - (GLASS_RGB[i] >> 8 & 0xFF);
+                int db = color.getBlue() - (GLASS_RGB[i] & 0xFF);
+                long distance = (long) dr * dr + (long) dg * dg + (long) db * db;
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = i;
+                }
+            }
+        }
+        return GLASS_DATA[best];
+    }
+}
@@ -0,0 +1,457 @@
+package org.little100.constructionWand.preview;
+
+import org.little100.constructionWand.action.PlacementPlan;
+
+import java.util.Arrays;
+
+/**
+ * 预览粒子点云
+ * 按 (计划, 预览模式, 准星位置, 粒子预算) 计算一次粒子坐标, 以 [x, y, z, x, y, z, ...] 的 double 数组保存,
+ * 这些条件不变时直接复用, 每次刷新只需要发送粒子。
+ * 启用细节层次时, 见 {@link PreviewLod}
+ */
+public final class PreviewGeometry {
+
+    private static final double STEP = 0.5;
+    public static final double DEFAULT_OUTLINE_STEP = 0.5;
+
+    // 超出预算时逐步降低细节的最大次数, 之后直接截断
+    private static final int MAX_LOD_ATTEMPTS = 16;
+
+    private static final int AXIS_X = 0;
+    private static final int AXIS_Y = 1;
+    private static final int AXIS_Z = 2;
+
+    private final PlacementPlan plan;
+    private final PreviewManager.PreviewMode mode;
+    private final double outlineStep;
+    private final boolean lodEnabled;
+    private final int focusX;
+    private final int focusY;
+    private final int focusZ;
+    private final int budget;
+    private double[] points;
+    private int size;
+
+    private PreviewGeometry(PlacementPlan plan, PreviewManager.PreviewMode mode, double outlineStep,
+            boolean lodEnabled, int focusX, int focusY, int focusZ, int budget, int expectedPoints) {
+        this.plan = plan;
+        this.mode = mode;
+        this.outlineStep = outlineStep;
+        this.lodEnabled = lodEnabled;
+        this.focusX = focusX;
+        this.focusY = focusY;
+        this.focusZ = focusZ;
+        this.budget = budget;
+        this.points = new double[Math.max(3, expectedPoints * 3)];
+    }
+
+    /**
+     * 计算计划在指定模式下的粒子点云(不限制细节)
+     * @param outlineStep OUTLINE 模式下轮廓线上相邻粒子的间距
+     */
+    public static PreviewGeometry build(PlacementPlan plan, PreviewManager.PreviewMode mode, double outlineStep) {
+        PreviewGeometry geometry;
+        switch (mode) {
+            case CORNERS:
+                geometry = new PreviewGeometry(plan, mode, outlineStep, false, 0, 0, 0, Integer.MAX_VALUE,
+                        plan.size() * 8);
+                plan.forEachCell(geometry::addCorners);
+                break;
+            case OUTLINE:
+                geometry = new PreviewGeometry(plan, mode, outlineStep, false, 0, 0, 0, Integer.MAX_VALUE,
+                        plan.size() * 4);
+                geometry.addOutline(OutlineGrid.of(plan));
+                break;
+            case FULL:
+            default:
+                geometry = new PreviewGeometry(plan, mode, outlineStep, false, 0, 0, 0, Integer.MAX_VALUE,
+                        plan.size() * 36);
+                plan.forEachCell(geometry::addFullBox);
+                break;
+        }
+        return geometry;
+    }
+
+    /**
+     * 按细节层次计算点云
+     * 准星附近按模式画完整方框或角, 其余位置由整个计划的轮廓表示; 超出预算时先缩小细节半径,
+     * 细节全部去掉后再加大轮廓间距, 仍然超出时截断
+     * @param focusX 准星所在方块
+     * @param budget 点云最多包含的粒子数
+     */
+    public static PreviewGeometry build(PlacementPlan plan, PreviewManager.PreviewMode mode, double outlineStep,
+            PreviewLod lod, int focusX, int focusY, int focusZ, int budget) {
+        if (!lod.isEnabled()) {
+            return build(plan, mode, outlineStep);
+        }
+
+        double fullRadius = lod.getFullRadius();
+        double cornersRadius = lod.getCornersRadius();
+        double step = outlineStep;
+        OutlineGrid grid = null;
+
+        PreviewGeometry geometry = null;
+        for (int attempt = 0; attempt <= MAX_LOD_ATTEMPTS; attempt++) {
+            geometry = new PreviewGeometry(plan, mode, step, true, focusX, focusY, focusZ, budget,
+                    Math.min(budget, plan.size() * 8));
+            boolean hasFar = geometry.addDetail(fullRadius, cornersRadius);
+            if (hasFar) {
+                // 轮廓位图只依赖计划, 各次尝试共用
+                if (grid == null) {
+                    grid = OutlineGrid.of(plan);
+                }
+                geometry.addOutline(grid);
+            }
+
+            if (geometry.size() <= budget) {
+                return geometry;
+            }
+
+            if (cornersRadius >= 0) {
+                fullRadius = shrink(fullRadius);
+                cornersRadius = shrink(cornersRadius);
+            } else {
+                step *= 2;
+            }
+        }
+
+        geometry.size = budget * 3;
+        return geometry;
+    }
+
+    private static double shrink(double radius) {
+        return radius >= 1 ? Math.floor(radius / 2) : -1;
+    }
+
+    /**
+     * 点云是否对应这些条件(计划按内容比较)
+     */
+    public boolean matches(PlacementPlan plan, PreviewManager.PreviewMode mode, int focusX, int focusY, int focusZ,
+            int budget) {
+        if (this.mode != mode || !(this.plan == plan || this.plan.equals(plan))) {
+            return false;
+        }
+        if (!lodEnabled) {
+            return true;
+        }
+        return this.budget == budget && this.focusX == focusX && this.focusY == focusY && this.focusZ == focusZ;
+    }
+
+    public PlacementPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * 粒子数量
+     */
+    public int size() {
+        return size / 3;
+    }
+
+    public double getX(int index) {
+        return points[index * 3];
+    }
+
+    public double getY(int index) {
+        return points[index * 3 + 1];
+    }
+
+    public double getZ(int index) {
+        return points[index * 3 + 2];
+    }
+
+    private void add(double x, double y, double z) {
+        if (size + 3 > points.length) {
+            points = Arrays.copyOf(points, points.length << 1);
+        }
+        points[size++] = x;
+        points[size++] = y;
+        points[size++] = z;
+    }
+
+    /**
+     * 按到准星的距离添加细节, 半径小于 0 表示不画该层
+     * @return 是否有位置没有画出细节(需要由轮廓表示)
+     */
+    private boolean addDetail(double fullRadius, double cornersRadius) {
+        double full2 = fullRadius < 0 ? -1 : fullRadius * fullRadius;
+        double corners2 = cornersRadius < 0 ? -1 : cornersRadius * cornersRadius;
+        boolean[] hasFar = { false };
+
+        plan.forEachCell((x, y, z) -> {
+            long dx = x - focusX;
+            long dy = y - focusY;
+            long dz = z - focusZ;
+            long distance2 = dx * dx + dy * dy + dz * dz;
+
+            if (mode == PreviewManager.PreviewMode.FULL && distance2 <= full2) {
+                addFullBox(x, y, z);
+            } else if (mode != PreviewManager.PreviewMode.OUTLINE && distance2 <= corners2) {
+                addCorners(x, y, z);
+            } else {
+                hasFar[0] = true;
+            }
+        });
+        return hasFar[0];
+    }
+
+    private void addFullBox(int bx, int by, int bz) {
+        double x = bx;
+        double y = by;
+        double z = bz;
+
+        for (double i = 0; i <= 1; i += STEP) {
+            add(x + i, y, z);
+            add(x + i, y, z + 1);
+            add(x, y, z + i);
+            add(x + 1, y, z + i);
+        }
+
+        for (double i = 0; i <= 1; i += STEP) {
+            add(x + i, y + 1, z);
+            add(x + i, y + 1, z + 1);
+            add(x, y + 1, z + i);
+            add(x + 1, y + 1, z + i);
+        }
+
+        for (double i = 0; i <= 1; i += STEP) {
+            add(x, y + i, z);
+            add(x + 1, y + i, z);
+            add(x, y + i, z + 1);
+            add(x + 1, y + i, z + 1);
+        }
+    }
+
+    private void addCorners(int bx, int by, int bz) {
+        double x = bx;
+        double y = by;
+        double z = bz;
+
+        add(x, y, z);
+        add(x + 1, y, z);
+        add(x, y, z + 1);
+        add(x + 1, y, z + 1);
+        add(x, y + 1, z);
+        add(x + 1, y + 1, z);
+        add(x, y + 1, z + 1);
+        add(x + 1, y + 1, z + 1);
+    }
+
+    /**
+     * 只绘制轮廓边: 两侧相邻面都没有其他方块的边
+     * 先在位图中标记所有轮廓边(见 {@link OutlineGrid#of(PlacementPlan)}), 再把同一直线上相连的边合并为最长的线段,
+     * 每条线段按间距采样一次, 位于方块角上的点(线段端点和交点)只输出一次
+     */
+    private void addOutline(OutlineGrid grid) {
+        if (grid == null) {
+            return;
+        }
+
+        grid.clearCorners();
+        for (int axis = 0; axis < 3; axis++) {
+            emitSegments(grid, axis);
+        }
+    }
+
+    /**
+     * 在位图中标记计划的所有轮廓边
+     */
+    private static OutlineGrid markOutline(PlacementPlan plan) {
+        OutlineGrid grid = new OutlineGrid(plan);
+        plan.forEachCell(grid::addCell);
+        plan.forEachCell((x, y, z) -> {
+            boolean hasNegX = grid.hasCell(x - 1, y, z);
+            boolean hasPosX = grid.hasCell(x + 1, y, z);
+            boolean hasNegY = grid.hasCell(x, y - 1, z);
+            boolean hasPosY = grid.hasCell(x, y + 1, z);
+            boolean hasNegZ = grid.hasCell(x, y, z - 1);
+            boolean hasPosZ = grid.hasCell(x, y, z + 1);
+
+            // 沿 z 轴的边
+            if (!hasNegX && !hasNegY) {
+                grid.markEdge(AXIS_Z, x, y, z);
+            }
+            if (!hasPosX && !hasNegY) {
+                grid.markEdge(AXIS_Z, x + 1, y, z);
+            }
+            if (!hasNegX && !hasPosY) {
+                grid.markEdge(AXIS_Z, x, y + 1, z);
+            }
+            if (!hasPosX && !hasPosY) {
+                grid.markEdge(AXIS_Z, x + 1, y + 1, z);
+            }
+
+            // 沿 x 轴的边
+            if (!hasNegY && !hasNegZ) {
+                grid.markEdge(AXIS_X, x, y, z);
+            }
+            if (!hasNegY && !hasPosZ) {
+                grid.markEdge(AXIS_X, x, y, z + 1);
+            }
+            if (!hasPosY && !hasNegZ) {
+                grid.markEdge(AXIS_X, x, y + 1, z);
+            }
+            if (!hasPosY && !hasPosZ) {
+                grid.markEdge(AXIS_X, x, y + 1, z + 1);
+            }
+
+            // 沿 y 轴的边
+            if (!hasNegX && !hasNegZ) {
+                grid.markEdge(AXIS_Y, x, y, z);
+            }
+            if (!hasPosX && !hasNegZ) {
+                grid.markEdge(AXIS_Y, x + 1, y, z);
+            }
+            if (!hasNegX && !hasPosZ) {
+                grid.markEdge(AXIS_Y, x, y, z + 1);
+            }
+            if (!hasPosX && !hasPosZ) {
+                grid.markEdge(AXIS_Y, x + 1, y, z + 1);
+            }
+        });
+        return grid;
+    }
+
+    /**
+     * 沿 axis 方向扫描每一条格线, 把连续的边合并为线段后输出
+     */
+    private void emitSegments(OutlineGrid grid, int axis) {
+        // 沿 axis 方向边的数量比角少一个
+        int lengthX = grid.sizeX + (axis == AXIS_X ? 0 : 1);
+        int lengthY = grid.sizeY + (axis == AXIS_Y ? 0 : 1);
+        int lengthZ = grid.sizeZ + (axis == AXIS_Z ? 0 : 1);
+        int along = axis == AXIS_X ? lengthX : axis == AXIS_Y ? lengthY : lengthZ;
+        int dx = axis == AXIS_X ? 1 : 0;
+        int dy = axis == AXIS_Y ? 1 : 0;
+        int dz = axis == AXIS_Z ? 1 : 0;
+
+        for (int rx = 0; rx < (dx == 1 ? 1 : lengthX); rx++) {
+            for (int ry = 0; ry < (dy == 1 ? 1 : lengthY); ry++) {
+                for (int rz = 0; rz < (dz == 1 ? 1 : lengthZ); rz++) {
+                    int runStart = -1;
+                    for (int i = 0; i <= along; i++) {
+                        boolean edge = i < along && grid.hasEdge(axis, rx + dx * i, ry + dy * i, rz + dz * i);
+                        if (edge && runStart < 0) {
+                            runStart = i;
+                        } else if (!edge && runStart >= 0) {
+                            emitSegment(grid, rx + dx * runStart, ry + dy * runStart, rz + dz * runStart,
+                                    dx, dy, dz, i - runStart);
+                            runStart = -1;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 从角 (rx, ry, rz) 沿 (dx, dy, dz) 输出长度为 length 的线段, 坐标相对包围盒
+     */
+    private void emitSegment(OutlineGrid grid, int rx, int ry, int rz, int dx, int dy, int dz, int length) {
+        int intervals = Math.max(1, (int) Math.ceil(length / outlineStep - 1e-9));
+        for (int k = 0; k <= intervals; k++) {
+            long scaled = (long) k * length;
+            if (scaled % intervals == 0) {
+                // 落在方块角上的点可能与其他线段重合
+                int offset = (int) (scaled / intervals);
+                if (!grid.markCorner(rx + dx * offset, ry + dy * offset, rz + dz * offset)) {
+                    continue;
+                }
+            }
+
+            double t = (double) scaled / intervals;
+            add(grid.minX + rx + dx * t, grid.minY + ry + dy * t, grid.minZ + rz + dz * t);
+        }
+    }
+
+    /**
+     * 轮廓计算用的位图
+     * 位置按包围盒内的下标保存, 边按 (轴, 起点角) 保存在每个轴各自的位图中, 角的范围比包围盒各方向多一格。
+     * 已输出的角另外记录, 用于去重
+     */
+    private static final class OutlineGrid {
+        private final int minX, minY, minZ;
+        private final int sizeX, sizeY, sizeZ;
+        private final long[] cells;
+        private final long[][] edges = new long[3][];
+        private final long[] corners;
+
+        private OutlineGrid(PlacementPlan plan) {
+            minX = plan.getMinX();
+            minY = plan.getMinY();
+            minZ = plan.getMinZ();
+            sizeX = plan.getMaxX() - minX + 1;
+            sizeY = plan.getMaxY() - minY + 1;
+            sizeZ = plan.getMaxZ() - minZ + 1;
+            cells = new long[(sizeX * sizeY * sizeZ + 63) >>> 6];
+
+            int cornerCount = (sizeX + 1) * (sizeY + 1) * (sizeZ + 1);
+            for (int axis = 0; axis < 3; axis++) {
+                edges[axis] = new long[(cornerCount + 63) >>> 6];
+            }
+            corners = new long[(cornerCount + 63) >>> 6];
+        }
+
+        private void addCell(int x, int y, int z) {
+            int index = ((x - minX) * sizeY + (y - minY)) * sizeZ + (z - minZ);
+            cells[index >>> 6] |= 1L << index;
+        }
+
+        private boolean hasCell(int x, int y, int z) {
+            int rx = x - minX;
+            int ry = y - minY;
+            int rz = z - minZ;
+            if (rx < 0 || ry < 0 || rz < 0 || rx >= sizeX || ry >= sizeY || rz >= sizeZ) {
+                return false;
+            }
+            int index = (rx * sizeY + ry) * sizeZ + rz;
+            return (cells[index >>> 6] & (1L << index)) != 0;
+        }
+
+        /**
+         * 标记好轮廓边的位图, 空计划返回 null
+         */
+        private static OutlineGrid of(PlacementPlan plan) {
+            return plan.isEmpty() ? null : markOutline(plan);
+        }
+
+        private void clearCorners() {
+            Arrays.fill(corners, 0L);
+        }
+
+        private int cornerIndex(int rx, int ry, int rz) {
+            return (rx * (sizeY + 1) + ry) * (sizeZ + 1) + rz;
+        }
+
+        /**
+         * 标记从角 (x, y, z) 沿 axis 方向的边(世界坐标)
+         */
+        private void markEdge(int axis, int x, int y, int z) {
+            int index = cornerIndex(x - minX, y - minY, z - minZ);
+            edges[axis][index >>> 6] |= 1L << index;
+        }
+
+        /**
+         * 从角 (rx, ry, rz) 沿 axis 方向是否有边(相对坐标)
+         */
+        private boolean hasEdge(int axis, int rx, int ry, int rz) {
+            int index = cornerIndex(rx, ry, rz);
+            return (edges[axis][index >>> 6] & (1L << index)) != 0;
+        }
+
+        /**
+         * 标记已输出的角(相对坐标)
+         * @return 如果之前没有标记过返回 true
+         */
+        private boolean markCorner(int rx, int ry, int rz) {
+            int index = cornerIndex(rx, ry, rz);
+            long bit = 1L << index;
+            if ((corners[index >>> 6] & bit) != 0) {
+                return false;
+            }
+            corners[index >>> 6] |= bit;
+            return true;
+        }
+    }
+}
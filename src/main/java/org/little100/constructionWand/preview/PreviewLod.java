@@ -0,0 +1,59 @@
+package org.little100.constructionWand.preview;
+
+/**
+ * 预览粒子细节层次(LOD)设置
+ * 离准星近的位置画完整方框, 稍远的位置只画角, 更远的位置只由整体轮廓表示;
+ * 每个玩家和整个服务器每秒发送的粒子数量有上限, 超出时自动缩小细节范围, 再加大轮廓间距
+ */
+public final class PreviewLod {
+
+    public static final PreviewLod DISABLED = new PreviewLod(false, 0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    private final boolean enabled;
+    private final double fullRadius;
+    private final double cornersRadius;
+    private final int maxPlayerParticlesPerSecond;
+    private final int maxServerParticlesPerSecond;
+
+    /**
+     * @param fullRadius 距离准星不超过该值(方块)的位置画完整方框
+     * @param cornersRadius 距离准星不超过该值的位置画角
+     * @param maxPlayerParticlesPerSecond 每个玩家每秒最多发送的粒子数
+     * @param maxServerParticlesPerSecond 整个服务器每秒最多发送的预览粒子数, 由正在预览的玩家平分
+     */
+    public PreviewLod(boolean enabled, double fullRadius, double cornersRadius, int maxPlayerParticlesPerSecond,
+            int maxServerParticlesPerSecond) {
+        this.enabled = enabled;
+        this.fullRadius = fullRadius;
+        this.cornersRadius = Math.max(fullRadius, cornersRadius);
+        this.maxPlayerParticlesPerSecond = Math.max(1, maxPlayerParticlesPerSecond);
+        this.maxServerParticlesPerSecond = Math.max(1, maxServerParticlesPerSecond);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public double getFullRadius() {
+        return fullRadius;
+    }
+
+    public double getCornersRadius() {
+        return cornersRadius;
+    }
+
+    /**
+     * 每次刷新单个玩家可以发送的粒子数
+     * @param activePlayers 正在预览的玩家数量
+     * @param refreshTicks 两次刷新之间的 tick 数
+     */
+    public int getBudgetPerRefresh(int activePlayers, int refreshTicks) {
+        if (!enabled) {
+            return Integer.MAX_VALUE;
+        }
+
+        long perSecond = Math.min(maxPlayerParticlesPerSecond,
+                maxServerParticlesPerSecond / Math.max(1, activePlayers));
+        return (int) Math.max(1, perSecond * refreshTicks / 20);
+    }
+}
@@ -1,8 +1,12 @@
 package org.little100.constructionWand.preview;
 
 import org.bukkit.*;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.Plugin;
+import org.little100.constructionWand.action.PlacementPlan;
+import org.little100.constructionWand.utils.BlockPos;
 import org.little100.constructionWand.utils.VersionHelper;
 
 import java.util.*;
@@ -15,298 +19,174 @@ public class PreviewManager {
         CORNERS
     }
 
+    /**
+     * 预览的显示方式
+     */
+    public enum PreviewBackend {
+        PARTICLES,
+        GHOST_BLOCKS,
+        DISPLAY_ENTITIES
+    }
+
     private final Plugin plugin;
-    private final Map<UUID, List<Location>> playerPreviews = new HashMap<>();
+    private final Map<UUID, PlacementPlan> playerPreviews = new HashMap<>();
     private final Map<UUID, Integer> playerTaskIds = new HashMap<>();
     private final Map<UUID, Material> playerMaterials = new HashMap<>();
     private final Map<UUID, PreviewMode> playerPreviewModes = new HashMap<>();
     private final Map<UUID, Particle.DustOptions> playerDustOptions = new HashMap<>();
+    private final Map<UUID, PreviewGeometry> playerGeometries = new HashMap<>();
+    private final Map<UUID, Long> playerFocus = new HashMap<>();
+    private final GhostBlockPreview ghostBlockPreview = new GhostBlockPreview();
+    private final DisplayEntityPreview displayEntityPreview;
 
     private Particle.DustOptions dustOptions = new Particle.DustOptions(Color.RED, 0.8f);
     private PreviewMode defaultPreviewMode = PreviewMode.FULL;
+    private double outlineStep = PreviewGeometry.DEFAULT_OUTLINE_STEP;
+    private PreviewLod lod = PreviewLod.DISABLED;
+    private PreviewBackend backend = PreviewBackend.PARTICLES;
 
-    private static final int PARTICLE_DURATION_TICKS = 10;
+    public static final int DEFAULT_REFRESH_TICKS = 10;
+
+    // 两次刷新之间的 tick 数, 用于换算每次刷新的粒子预算
+    private int refreshTicks = DEFAULT_REFRESH_TICKS;
 
     public PreviewManager(Plugin plugin) {
         this.plugin = plugin;
+        this.displayEntityPreview = new DisplayEntityPreview(plugin);
     }
 
-    public void showPreview(Player player, List<Location> locations, Material material) {
+    public void showPreview(Player player, PlacementPlan plan, Material material) {
 
         clearPreview(player);
 
-        if (locations == null || locations.isEmpty()) {
+        if (plan == null || plan.isEmpty()) {
             return;
         }
 
         UUID playerId = player.getUniqueId();
-        playerPreviews.put(playerId, new ArrayList<>(locations));
+        playerPreviews.put(playerId, plan);
         playerMaterials.put(playerId, material);
 
-        spawnPreviewParticles(player, locations);
+        spawnPreviewParticles(player, plan);
+    }
+
+    /**
+     * 更新预览并记录准星位置(细节层次按到准星的距离计算)
+     */
+    public void updatePreview(Player player, PlacementPlan plan, Material material, int focusX, int focusY,
+            int focusZ) {
+        if (plan != null && !plan.isEmpty()) {
+            playerFocus.put(player.getUniqueId(), BlockPos.pack(focusX, focusY, focusZ));
+        }
+        updatePreview(player, plan, material);
     }
 
-    public void updatePreview(Player player, List<Location> locations, Material material) {
-        if (locations == null || locations.isEmpty()) {
+    public void updatePreview(Player player, PlacementPlan plan, Material material) {
+        if (plan == null || plan.isEmpty()) {
             clearPreview(player);
             return;
         }
 
         UUID playerId = player.getUniqueId();
-        List<Location> currentLocations = playerPreviews.get(playerId);
-
-        boolean sameLocations = currentLocations != null &&
-                currentLocations.size() == locations.size() &&
-                locationsMatch(currentLocations, locations);
-
-        if (!sameLocations) {
 
-            playerPreviews.put(playerId, new ArrayList<>(locations));
+        // 计划不可变, 内容相同时保留原来的计划, 后端据此跳过更新
+        PlacementPlan retained = playerPreviews.get(playerId);
+        if (plan.equals(retained)) {
+            plan = retained;
+        } else {
+            playerPreviews.put(playerId, plan);
             playerMaterials.put(playerId, material);
         }
 
-        spawnPreviewParticles(player, locations);
-    }
-
-    private boolean locationsMatch(List<Location> list1, List<Location> list2) {
-        if (list1.size() != list2.size())
-            return false;
-        for (int i = 0; i < list1.size(); i++) {
-            Location loc1 = list1.get(i);
-            Location loc2 = list2.get(i);
-            if (loc1.getBlockX() != loc2.getBlockX() ||
-                    loc1.getBlockY() != loc2.getBlockY() ||
-                    loc1.getBlockZ() != loc2.getBlockZ()) {
-                return false;
-            }
-        }
-        return true;
+        spawnPreviewParticles(player, plan);
     }
 
     public void refreshParticlePreview(Player player) {
         UUID playerId = player.getUniqueId();
-        List<Location> locations = playerPreviews.get(playerId);
+        PlacementPlan plan = playerPreviews.get(playerId);
 
-        if (locations == null || locations.isEmpty()) {
+        if (plan == null || plan.isEmpty()) {
             return;
         }
 
-        spawnPreviewParticles(player, locations);
+        spawnPreviewParticles(player, plan);
     }
 
-    private void spawnPreviewParticles(Player player, List<Location> locations) {
-        PreviewMode mode = getPlayerPreviewMode(player);
-
-        switch (mode) {
-            case CORNERS:
-
-                spawnAllCornerParticles(player, locations);
-                break;
-            case OUTLINE:
-
-                spawnBoundingBoxParticles(player, locations);
-                break;
-            case FULL:
-            default:
-
-                spawnAllFullOutlineParticles(player, locations);
-                break;
-        }
-    }
-
-    private void spawnAllFullOutlineParticles(Player player, List<Location> locations) {
-        if (locations == null || locations.isEmpty())
+    private void spawnPreviewParticles(Player player, PlacementPlan plan) {
+        // 虚影方块在客户端保留, 计划变化时才发送差异
+        if (backend == PreviewBackend.GHOST_BLOCKS) {
+            ghostBlockPreview.show(player, plan, getPlayerPreviewColor(player));
             return;
+        }
 
-        World world = locations.get(0).getWorld();
-        if (world == null)
+        // 矩形过多时改用粒子
+        if (backend == PreviewBackend.DISPLAY_ENTITIES
+                && displayEntityPreview.show(player, plan, getPlayerPreviewColor(player))) {
             return;
-
-        List<Location> allParticles = new ArrayList<>();
-        double step = 0.5;
-
-        for (Location loc : locations) {
-            double x = loc.getBlockX();
-            double y = loc.getBlockY();
-            double z = loc.getBlockZ();
-
-            for (double i = 0; i <= 1; i += step) {
-                allParticles.add(new Location(world, x + i, y, z));
-                allParticles.add(new Location(world, x + i, y, z + 1));
-                allParticles.add(new Location(world, x, y, z + i));
-                allParticles.add(new Location(world, x + 1, y, z + i));
-            }
-
-            for (double i = 0; i <= 1; i += step) {
-                allParticles.add(new Location(world, x + i, y + 1, z));
-                allParticles.add(new Location(world, x + i, y + 1, z + 1));
-                allParticles.add(new Location(world, x, y + 1, z + i));
-                allParticles.add(new Location(world, x + 1, y + 1, z + i));
-            }
-
-            for (double i = 0; i <= 1; i += step) {
-                allParticles.add(new Location(world, x, y + i, z));
-                allParticles.add(new Location(world, x + 1, y + i, z));
-                allParticles.add(new Location(world, x, y + i, z + 1));
-                allParticles.add(new Location(world, x + 1, y + i, z + 1));
-            }
         }
 
-        spawnParticlesBatch(player, allParticles);
-    }
+        PreviewMode mode = getPlayerPreviewMode(player);
+        UUID playerId = player.getUniqueId();
 
-    private void spawnAllCornerParticles(Player player, List<Location> locations) {
-        if (locations == null || locations.isEmpty())
-            return;
+        int focusX, focusY, focusZ;
+        Long focus = playerFocus.get(playerId);
+        if (focus != null) {
+            focusX = BlockPos.unpackX(focus);
+            focusY = BlockPos.unpackY(focus);
+            focusZ = BlockPos.unpackZ(focus);
+        } else {
+            Location location = player.getLocation();
+            focusX = location.getBlockX();
+            focusY = location.getBlockY();
+            focusZ = location.getBlockZ();
+        }
 
-        World world = locations.get(0).getWorld();
-        if (world == null)
-            return;
+        // 正在预览的玩家平分服务器预算
+        int budget = lod.getBudgetPerRefresh(playerPreviews.size(), refreshTicks);
 
-        List<Location> allParticles = new ArrayList<>();
-
-        for (Location loc : locations) {
-            double x = loc.getBlockX();
-            double y = loc.getBlockY();
-            double z = loc.getBlockZ();
-
-            allParticles.add(new Location(world, x, y, z));
-            allParticles.add(new Location(world, x + 1, y, z));
-            allParticles.add(new Location(world, x, y, z + 1));
-            allParticles.add(new Location(world, x + 1, y, z + 1));
-            allParticles.add(new Location(world, x, y + 1, z));
-            allParticles.add(new Location(world, x + 1, y + 1, z));
-            allParticles.add(new Location(world, x, y + 1, z + 1));
-            allParticles.add(new Location(world, x + 1, y + 1, z + 1));
+        // 条件不变时复用已计算的点云
+        PreviewGeometry geometry = playerGeometries.get(playerId);
+        if (geometry == null || !geometry.matches(plan, mode, focusX, focusY, focusZ, budget)) {
+            geometry = PreviewGeometry.build(plan, mode, outlineStep, lod, focusX, focusY, focusZ, budget);
+            playerGeometries.put(playerId, geometry);
         }
 
-        spawnParticlesBatch(player, allParticles);
+        spawnGeometryParticles(player, geometry);
     }
 
-    private void spawnBoundingBoxParticles(Player player, List<Location> locations) {
-        if (locations == null || locations.isEmpty())
-            return;
-
-        World world = locations.get(0).getWorld();
-        if (world == null)
+    private void spawnGeometryParticles(Player player, PreviewGeometry geometry) {
+        int count = geometry.size();
+        if (count == 0)
             return;
 
-        Set<String> blockSet = new HashSet<>();
-        for (Location loc : locations) {
-            blockSet.add(loc.getBlockX() + "," + loc.getBlockY() + "," + loc.getBlockZ());
-        }
-
-        Set<String> edgeSet = new HashSet<>();
-        List<Location> particleLocations = new ArrayList<>();
-        double step = 0.5;
-
-        for (Location loc : locations) {
-            int x = loc.getBlockX();
-            int y = loc.getBlockY();
-            int z = loc.getBlockZ();
-
-            boolean hasNegX = blockSet.contains((x - 1) + "," + y + "," + z);
-            boolean hasPosX = blockSet.contains((x + 1) + "," + y + "," + z);
-            boolean hasNegY = blockSet.contains(x + "," + (y - 1) + "," + z);
-            boolean hasPosY = blockSet.contains(x + "," + (y + 1) + "," + z);
-            boolean hasNegZ = blockSet.contains(x + "," + y + "," + (z - 1));
-            boolean hasPosZ = blockSet.contains(x + "," + y + "," + (z + 1));
-
-            int edge_x0y0z = (!hasNegX ? 1 : 0) + (!hasNegY ? 1 : 0);
-            if (edge_x0y0z >= 2) {
-                addEdgeParticles(edgeSet, particleLocations, world, x, y, z, x, y, z + 1, step);
-            }
-
-            int edge_x1y0z = (!hasPosX ? 1 : 0) + (!hasNegY ? 1 : 0);
-            if (edge_x1y0z >= 2) {
-                addEdgeParticles(edgeSet, particleLocations, world, x + 1, y, z, x + 1, y, z + 1, step);
-            }
-
-            int edge_y0z0x = (!hasNegY ? 1 : 0) + (!hasNegZ ? 1 : 0);
-            if (edge_y0z0x >= 2) {
-                addEdgeParticles(edgeSet, particleLocations, world, x, y, z, x + 1, y, z, step);
-            }
-
-            int edge_y0z1x = (!hasNegY ? 1 : 0) + (!hasPosZ ? 1 : 0);
-            if (edge_y0z1x >= 2) {
-                addEdgeParticles(edgeSet, particleLocations, world, x, y, z + 1, x + 1, y, z + 1, step);
-            }
-
-            int edge_x0y1z = (!hasNegX ? 1 : 0) + (!hasPosY ? 1 : 0);
-            if (edge_x0y1z >= 2) {
-                addEdgeParticles(edgeSet, particleLocations, world, x, y + 1, z, x, y + 1, z + 1, step);
-            }
-
-            int edge_x1y1z = (!hasPosX ? 1 : 0) + (!hasPosY ? 1 : 0);
-            if (edge_x1y1z >= 2) {
-                addEdgeParticles(edgeSet, particleLocations, world, x + 1, y + 1, z, x + 1, y + 1, z + 1, step);
-            }
-
-            int edge_y1z0x = (!hasPosY ? 1 : 0) + (!hasNegZ ? 1 : 0);
-            if (edge_y1z0x >= 2) {
-                addEdgeParticles(edgeSet, particleLocations, world, x, y + 1, z, x + 1, y + 1, z, step);
-            }
+        Particle.DustOptions playerOptions = getPlayerDustOptions(player);
 
-            int edge_y1z1x = (!hasPosY ? 1 : 0) + (!hasPosZ ? 1 : 0);
-            if (edge_y1z1x >= 2) {
-                addEdgeParticles(edgeSet, particleLocations, world, x, y + 1, z + 1, x + 1, y + 1, z + 1, step);
-            }
+        try {
 
-            int edge_x0z0y = (!hasNegX ? 1 : 0) + (!hasNegZ ? 1 : 0);
-            if (edge_x0z0y >= 2) {
-                addEdgeParticles(edgeSet, particleLocations, world, x, y, z, x, y + 1, z, step);
+            for (int i = 0; i < count; i++) {
+                player.spawnParticle(Particle.DUST, geometry.getX(i), geometry.getY(i), geometry.getZ(i),
+                        1, 0, 0, 0, 0, playerOptions);
             }
+        } catch (Exception e) {
 
-            int edge_x1z0y = (!hasPosX ? 1 : 0) + (!hasNegZ ? 1 : 0);
-            if (edge_x1z0y >= 2) {
-                addEdgeParticles(edgeSet, particleLocations, world, x + 1, y, z, x + 1, y + 1, z, step);
-            }
+            try {
+                Particle redstone = Particle.valueOf("REDSTONE");
+                for (int i = 0; i < count; i++) {
+                    player.spawnParticle(redstone, geometry.getX(i), geometry.getY(i), geometry.getZ(i),
+                            1, 0, 0, 0, 0, dustOptions);
+                }
+            } catch (Exception e2) {
 
-            int edge_x0z1y = (!hasNegX ? 1 : 0) + (!hasPosZ ? 1 : 0);
-            if (edge_x0z1y >= 2) {
-                addEdgeParticles(edgeSet, particleLocations, world, x, y, z + 1, x, y + 1, z + 1, step);
-            }
+                try {
+                    for (int i = 0; i < count; i++) {
+                        player.spawnParticle(Particle.FLAME, geometry.getX(i), geometry.getY(i), geometry.getZ(i),
+                                1, 0, 0, 0, 0);
+                    }
+                } catch (Exception e3) {
 
-            int edge_x1z1y = (!hasPosX ? 1 : 0) + (!hasPosZ ? 1 : 0);
-            if (edge_x1z1y >= 2) {
-                addEdgeParticles(edgeSet, particleLocations, world, x + 1, y, z + 1, x + 1, y + 1, z + 1, step);
+                }
             }
         }
-
-        spawnParticlesBatch(player, particleLocations);
-    }
-
-    private void addEdgeParticles(Set<String> edgeSet, List<Location> particles, World world,
-            double x1, double y1, double z1, double x2, double y2, double z2, double step) {
-
-        String edgeKey;
-        if (x1 < x2 || (x1 == x2 && y1 < y2) || (x1 == x2 && y1 == y2 && z1 < z2)) {
-            edgeKey = x1 + "," + y1 + "," + z1 + "-" + x2 + "," + y2 + "," + z2;
-        } else {
-            edgeKey = x2 + "," + y2 + "," + z2 + "-" + x1 + "," + y1 + "," + z1;
-        }
-
-        if (edgeSet.contains(edgeKey)) {
-            return;
-        }
-        edgeSet.add(edgeKey);
-
-        double dx = x2 - x1;
-        double dy = y2 - y1;
-        double dz = z2 - z1;
-        double length = Math.sqrt(dx * dx + dy * dy + dz * dz);
-
-        if (length == 0)
-            return;
-
-        int numParticles = (int) Math.ceil(length / step) + 1;
-        for (int i = 0; i <= numParticles; i++) {
-            double t = (double) i / numParticles;
-            double px = x1 + dx * t;
-            double py = y1 + dy * t;
-            double pz = z1 + dz * t;
-            particles.add(new Location(world, px, py, pz));
-        }
     }
 
     private void spawnFullOutlineParticles(Player player, Location loc) {
@@ -419,11 +299,22 @@ public class PreviewManager {
         }
     }
 
+    /**
+     * 点击的方块是否是虚影方块, 见 {@link GhostBlockPreview#getGhostFace(Player, Block)}
+     */
+    public BlockFace getGhostFace(Player player, Block block) {
+        return ghostBlockPreview.getGhostFace(player, block);
+    }
+
     public void clearPreview(Player player) {
         UUID playerId = player.getUniqueId();
 
         playerPreviews.remove(playerId);
         playerMaterials.remove(playerId);
+        playerGeometries.remove(playerId);
+        playerFocus.remove(playerId);
+        ghostBlockPreview.clear(player);
+        displayEntityPreview.clear(player);
 
         Integer taskId = playerTaskIds.remove(playerId);
         if (taskId != null && !VersionHelper.isFolia()) {
@@ -440,10 +331,14 @@ public class PreviewManager {
         }
         playerPreviews.clear();
         playerTaskIds.clear();
+        playerGeometries.clear();
+        playerFocus.clear();
+        ghostBlockPreview.clearAll();
+        displayEntityPreview.clearAll();
     }
 
-    public List<Location> getPreviewLocations(Player player) {
-        return playerPreviews.getOrDefault(player.getUniqueId(), Collections.emptyList());
+    public PlacementPlan getPreviewPlan(Player player) {
+        return playerPreviews.getOrDefault(player.getUniqueId(), PlacementPlan.empty());
     }
 
     public void setPreviewColor(Color color) {
@@ -454,6 +349,49 @@ public class PreviewManager {
         this.defaultPreviewMode = mode;
     }
 
+    /**
+     * 设置 OUTLINE 模式下轮廓线上相邻粒子的间距, 已缓存的点云会重新计算
+     */
+    public void setOutlineStep(double outlineStep) {
+        this.outlineStep = outlineStep;
+        playerGeometries.clear();
+    }
+
+    public void setRefreshTicks(int refreshTicks) {
+        this.refreshTicks = Math.max(1, refreshTicks);
+        playerGeometries.clear();
+    }
+
+    /**
+     * 设置粒子细节层次和预算, 已缓存的点云会重新计算
+     */
+    public void setLod(PreviewLod lod) {
+        this.lod = lod != null ? lod : PreviewLod.DISABLED;
+        playerGeometries.clear();
+    }
+
+    /**
+     * 设置预览的显示方式, 切换时恢复已发送的虚影方块
+     */
+    public void setBackend(PreviewBackend backend) {
+        if (backend != this.backend) {
+            ghostBlockPreview.clearAll();
+            displayEntityPreview.clearAll();
+        }
+        this.backend = backend != null ? backend : PreviewBackend.PARTICLES;
+    }
+
+    /**
+     * 展示实体预览每个玩家最多使用的实体数量
+     */
+    public void setMaxDisplayEntities(int maxEntities) {
+        displayEntityPreview.setMaxEntities(maxEntities);
+    }
+
+    public PreviewBackend getBackend() {
+        return backend;
+    }
+
     public PreviewMode getPreviewMode() {
         return defaultPreviewMode;
     }
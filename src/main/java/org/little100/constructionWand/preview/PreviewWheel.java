@@ -0,0 +1,84 @@
+package org.little100.constructionWand.preview;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 预览刷新时间轮
+ * 把手持手杖的玩家分散到刷新周期内的各个 tick 上, 每个 tick 只刷新其中一格, 避免所有玩家在同一 tick 刷新造成卡顿。
+ * 加入时放到人数最少的格子, 每个玩家仍然每个周期刷新一次。只有手持手杖的玩家在时间轮中, 放下手杖后在下一次刷新时移出。
+ * Folia 上事件和定时任务在不同线程执行, 因此使用并发集合。
+ */
+public class PreviewWheel {
+
+    private final Set<UUID>[] slots;
+    private final Map<UUID, Integer> slotOf = new ConcurrentHashMap<>();
+    private int cursor;
+
+    @SuppressWarnings("unchecked")
+    public PreviewWheel(int period) {
+        slots = new Set[Math.max(1, period)];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = ConcurrentHashMap.newKeySet();
+        }
+    }
+
+    public int getPeriod() {
+        return slots.length;
+    }
+
+    /**
+     * 加入时间轮, 已经在轮中时不变
+     */
+    public void add(UUID playerId) {
+        if (slotOf.containsKey(playerId)) {
+            return;
+        }
+
+        int best = 0;
+        for (int i = 1; i < slots.length; i++) {
+            if (slots[i].size() < slots[best].size()) {
+                best = i;
+            }
+        }
+        if (slotOf.putIfAbsent(playerId, best) == null) {
+            slots[best].add(playerId);
+        }
+    }
+
+    public void remove(UUID playerId) {
+        Integer slot = slotOf.remove(playerId);
+        if (slot != null) {
+            slots[slot].remove(playerId);
+        }
+    }
+
+    public boolean contains(UUID playerId) {
+        return slotOf.containsKey(playerId);
+    }
+
+    /**
+     * 当前在时间轮中的玩家(实时视图)
+     */
+    public Set<UUID> getMembers() {
+        return slotOf.keySet();
+    }
+
+    /**
+     * 前进一个 tick, 返回本 tick 需要刷新的玩家(实时视图, 遍历时可以移除)
+     */
+    public Set<UUID> advance() {
+        Set<UUID> slot = slots[cursor];
+        cursor = (cursor + 1) % slots.length;
+        return slot;
+    }
+
+    public void clear() {
+        slotOf.clear();
+        for (Set<UUID> slot : slots) {
+            slot.clear();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.little100.constructionWand.protection;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.entity.Player;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.inventory.EquipmentSlot;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.Plugin;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * 模拟事件提供者
+ * 对每个位置触发一次 BlockPlaceEvent, 兼容大多数没有原生提供者的领地插件。
+ * 代价最高, 因此优先级最低, 且不用于预览
+ */
+public class EventProtectionProvider implements ProtectionProvider {
+
+    public static final String NAME = "event";
+
+    private final Plugin plugin;
+
+    public EventProtectionProvider(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public int getPriority() {
+        return 0;
+    }
+
+    @Override
+    public boolean isNative() {
+        return false;
+    }
+
+    @Override
+    public void checkAll(Player player, List<Location> locations, int[] order, Material material, BitSet allowed) {
+        // 手持物品整批只创建一次
+        ItemStack itemInHand = new ItemStack(material);
+        for (int index : order) {
+            if (allowed.get(index) && !checkByEvent(player, locations.get(index), itemInHand)) {
+                allowed.clear(index);
+            }
+        }
+    }
+
+    private boolean checkByEvent(Player player, Location location, ItemStack itemInHand) {
+        try {
+            Block block = location.getBlock();
+            BlockState replacedState = block.getState();
+
+            Block placedAgainst = block.getRelative(org.bukkit.block.BlockFace.DOWN);
+            if (placedAgainst.getType() == Material.AIR) {
+                placedAgainst = block.getRelative(org.bukkit.block.BlockFace.NORTH);
+            }
+
+            BlockPlaceEvent event = new BlockPlaceEvent(
+                    block,
+                    replacedState,
+                    placedAgainst,
+                    itemInHand,
+                    player,
+                    true,
+                    EquipmentSlot.HAND);
+
+            Bukkit.getPluginManager().callEvent(event);
+
+            return !event.isCancelled();
+
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.WARNING, "事件检查失败", e);
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.little100.constructionWand.protection;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.little100.constructionWand.utils.BlockPos;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 保护检查结果缓存
+ * 按玩家和区块段(16x16x16)保存每个方块的检查结果, 区块段在 TTL 到期后整体失效。
+ * 结果与放置的材料有关(保护插件可能按材料判断), 每个玩家只保存当前世界和材料的结果, 换世界或材料时重新开始。
+ * 新建区块段时清理过期的区块段, 仍超过上限时清空该玩家的缓存。
+ * 领地变化事件会清空缓存, 见 {@link org.little100.constructionWand.listener.ProtectionCacheListener}
+ */
+public class ProtectionCache {
+
+    // 每个玩家最多保存的区块段数量(每段约 1KB)
+    private static final int MAX_SECTIONS_PER_PLAYER = 512;
+
+    private final Map<UUID, PlayerEntry> players = new ConcurrentHashMap<>();
+    private volatile long ttlMillis = 30_000L;
+
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = Math.max(0L, ttlMillis);
+    }
+
+    /**
+     * 获取缓存的结果
+     * @return 未缓存或已过期时返回 null
+     */
+    public Boolean get(UUID playerId, Location location, Material material) {
+        PlayerEntry entry = players.get(playerId);
+        World world = location.getWorld();
+        if (entry == null || world == null || !entry.matches(world, material)) {
+            return null;
+        }
+
+        Section section = entry.sections.get(sectionKey(location));
+        if (section == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= section.expiresAt) {
+            entry.sections.remove(sectionKey(location), section);
+            return null;
+        }
+        return section.get(indexInSection(location));
+    }
+
+    public void put(UUID playerId, Location location, Material material, boolean allowed) {
+        World world = location.getWorld();
+        if (world == null || ttlMillis <= 0) {
+            return;
+        }
+
+        PlayerEntry entry = players.get(playerId);
+        if (entry == null || !entry.matches(world, material)) {
+            entry = new PlayerEntry(world.getUID(), material);
+            players.put(playerId, entry);
+        }
+
+        long key = sectionKey(location);
+        long now = System.currentTimeMillis();
+        Section section = entry.sections.get(key);
+        if (section == null || now >= section.expiresAt) {
+            if (section == null && entry.sections.size() >= MAX_SECTIONS_PER_PLAYER) {
+                prune(entry, now);
+            }
+            section = new Section(now + ttlMillis);
+            entry.sections.put(key, section);
+        }
+        section.set(indexInSection(location), allowed);
+    }
+
+    private static void prune(PlayerEntry entry, long now) {
+        entry.sections.values().removeIf(section -> now >= section.expiresAt);
+        if (entry.sections.size() >= MAX_SECTIONS_PER_PLAYER) {
+            entry.sections.clear();
+        }
+    }
+
+    public void invalidate(UUID playerId) {
+        players.remove(playerId);
+    }
+
+    public void clear() {
+        players.clear();
+    }
+
+    private static long sectionKey(Location location) {
+        return BlockPos.pack(location.getBlockX() >> 4, location.getBlockY() >> 4, location.getBlockZ() >> 4);
+    }
+
+    private static int indexInSection(Location location) {
+        return ((location.getBlockY() & 15) << 8) | ((location.getBlockZ() & 15) << 4) | (location.getBlockX() & 15);
+    }
+
+    private static final class PlayerEntry {
+        private final UUID worldId;
+        private final Material material;
+        private final Map<Long, Section> sections = new ConcurrentHashMap<>();
+
+        private PlayerEntry(UUID worldId, Material material) {
+            this.worldId = worldId;
+            this.material = material;
+        }
+
+        private boolean matches(World world, Material material) {
+            return this.material == material && worldId.equals(world.getUID());
+        }
+    }
+
+    /**
+     * 一个区块段内 4096 个方块的结果, 每个方块两位: 是否已检查、是否允许
+     */
+    private static final class Section {
+        private final long expiresAt;
+        private final long[] known = new long[64];
+        private final long[] allowed = new long[64];
+
+        private Section(long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+
+        private Boolean get(int index) {
+            long bit = 1L << index;
+            if ((known[index >>> 6] & bit) == 0) {
+                return null;
+            }
+            return (allowed[index >>> 6] & bit) != 0;
+        }
+
+        private void set(int index, boolean value) {
+            long bit = 1L << index;
+            known[index >>> 6] |= bit;
+            if (value) {
+                allowed[index >>> 6] |= bit;
+            } else {
+                allowed[index >>> 6] &= ~bit;
+            }
+        }
+    }
+}
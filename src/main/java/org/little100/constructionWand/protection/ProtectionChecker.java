@@ -3,22 +3,42 @@ package org.little100.constructionWand.protection;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.Material;
-import org.bukkit.block.Block;
-import org.bukkit.block.BlockState;
 import org.bukkit.entity.Player;
-import org.bukkit.event.block.BlockPlaceEvent;
-import org.bukkit.inventory.EquipmentSlot;
-import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.Plugin;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.logging.Level;
 
 public class ProtectionChecker {
 
     private final Plugin plugin;
+    private final ProtectionProviderRegistry registry = new ProtectionProviderRegistry();
+    private EventProtectionProvider eventProvider;
     private WorldGuardHook worldGuardHook;
     private boolean useEventCheck = true;
     private boolean useWorldGuard = false;
+    private final ProtectionCache cache = new ProtectionCache();
+    private boolean useCache = true;
+    private boolean bypassCacheOnPlace = true;
+    private PreviewCheck previewCheck = PreviewCheck.CACHED;
+
+    /**
+     * 预览(规划)阶段的保护检查方式, 均不会触发模拟的放置事件
+     */
+    public enum PreviewCheck {
+        /** 使用缓存的结果, 未缓存的位置使用原生提供者 */
+        CACHED,
+        /** 只使用原生提供者 */
+        NATIVE,
+        /** 不检查, 全部视为允许 */
+        OPTIMISTIC
+    }
 
     public ProtectionChecker(Plugin plugin) {
         this.plugin = plugin;
@@ -27,9 +47,13 @@ public class ProtectionChecker {
 
     private void initHooks() {
 
+        eventProvider = new EventProtectionProvider(plugin);
+        registry.register(eventProvider);
+
         if (Bukkit.getPluginManager().getPlugin("WorldGuard") != null) {
             try {
-                worldGuardHook = new WorldGuardHook();
+                worldGuardHook = new WorldGuardHook(plugin.getLogger());
+                registry.register(worldGuardHook);
                 useWorldGuard = true;
                 plugin.getLogger().info("已检测到 WorldGuard，启用原生支持");
             } catch (Exception e) {
@@ -44,7 +68,7 @@ public class ProtectionChecker {
 
         for (String pluginName : protectionPlugins) {
             if (Bukkit.getPluginManager().getPlugin(pluginName) != null) {
-                plugin.getLogger().info("已检测到 " + pluginName + "，将通过事件系统兼容");
+                plugin.getLogger().info("已检测到 " + pluginName + "，未注册原生提供者时将通过事件系统兼容");
             }
         }
     }
@@ -55,57 +79,174 @@ public class ProtectionChecker {
             return true;
         }
 
-        if (useEventCheck) {
-            if (!checkByEvent(player, location, material)) {
-                return false;
-            }
+        BitSet allowed = new BitSet(1);
+        allowed.set(0);
+        return checkAll(player, Collections.singletonList(location), material, allowed).get(0);
+    }
+
+    /**
+     * 批量检查一组位置
+     * 优先使用缓存的结果; 实际放置时如果配置了 bypass-on-place 则总是重新检查
+     * @param forPlacement 是否是实际放置前的检查
+     * @return 允许放置的位置下标
+     */
+    public BitSet canPlaceAll(Player player, List<Location> locations, Material material, boolean forPlacement) {
+        int size = locations.size();
+        BitSet allowed = new BitSet(size);
+        allowed.set(0, size);
+
+        if (size == 0 || player.hasPermission("constructionwand.bypass")) {
+            return allowed;
         }
 
-        if (useWorldGuard && worldGuardHook != null) {
-            if (!worldGuardHook.canBuild(player, location)) {
-                return false;
+        if (!useCache) {
+            return checkAll(player, locations, material, allowed);
+        }
+
+        UUID playerId = player.getUniqueId();
+        boolean readCache = !(forPlacement && bypassCacheOnPlace);
+        List<Location> pending = new ArrayList<>();
+        int[] pendingIndices = new int[size];
+        for (int i = 0; i < size; i++) {
+            Location location = locations.get(i);
+            Boolean cached = readCache ? cache.get(playerId, location, material) : null;
+            if (cached == null) {
+                pendingIndices[pending.size()] = i;
+                pending.add(location);
+            } else if (!cached) {
+                allowed.clear(i);
             }
         }
 
-        return true;
+        if (pending.isEmpty()) {
+            return allowed;
+        }
+
+        BitSet checked = new BitSet(pending.size());
+        checked.set(0, pending.size());
+        checkAll(player, pending, material, checked);
+        for (int i = 0; i < pending.size(); i++) {
+            boolean result = checked.get(i);
+            cache.put(playerId, pending.get(i), material, result);
+            if (!result) {
+                allowed.clear(pendingIndices[i]);
+            }
+        }
+        return allowed;
     }
 
-    private boolean checkByEvent(Player player, Location location, Material material) {
-        try {
-            Block block = location.getBlock();
-            BlockState replacedState = block.getState();
+    /**
+     * 预览阶段的轻量检查, 不触发 BlockPlaceEvent, 结果也不写入缓存
+     * 实际放置前仍由 {@link #canPlaceAll(Player, List, Material, boolean)} 做完整检查
+     * @return 允许放置的位置下标
+     */
+    public BitSet canPlaceAllPreview(Player player, List<Location> locations, Material material) {
+        int size = locations.size();
+        BitSet allowed = new BitSet(size);
+        allowed.set(0, size);
 
-            Block placedAgainst = block.getRelative(org.bukkit.block.BlockFace.DOWN);
-            if (placedAgainst.getType() == Material.AIR) {
-                placedAgainst = block.getRelative(org.bukkit.block.BlockFace.NORTH);
+        if (size == 0 || previewCheck == PreviewCheck.OPTIMISTIC
+                || player.hasPermission("constructionwand.bypass")) {
+            return allowed;
+        }
+
+        boolean readCache = useCache && previewCheck == PreviewCheck.CACHED;
+        if (!readCache) {
+            return runProviders(player, locations, material, allowed, true);
+        }
+
+        UUID playerId = player.getUniqueId();
+        List<Location> pending = new ArrayList<>();
+        int[] pendingIndices = new int[size];
+        for (int i = 0; i < size; i++) {
+            Location location = locations.get(i);
+            Boolean cached = cache.get(playerId, location, material);
+            if (cached == null) {
+                pendingIndices[pending.size()] = i;
+                pending.add(location);
+            } else if (!cached) {
+                allowed.clear(i);
             }
+        }
 
-            ItemStack itemInHand = new ItemStack(material);
+        if (pending.isEmpty()) {
+            return allowed;
+        }
 
-            BlockPlaceEvent event = new BlockPlaceEvent(
-                    block,
-                    replacedState,
-                    placedAgainst,
-                    itemInHand,
-                    player,
-                    true,
-                    EquipmentSlot.HAND);
+        BitSet checked = new BitSet(pending.size());
+        checked.set(0, pending.size());
+        runProviders(player, pending, material, checked, true);
+        for (int i = checked.nextClearBit(0); i < pending.size(); i = checked.nextClearBit(i + 1)) {
+            allowed.clear(pendingIndices[i]);
+        }
+        return allowed;
+    }
 
-            Bukkit.getPluginManager().callEvent(event);
+    /**
+     * 完整检查一组位置, 不允许的位置会从 allowed 中清除
+     */
+    private BitSet checkAll(Player player, List<Location> locations, Material material, BitSet allowed) {
+        return runProviders(player, locations, material, allowed, false);
+    }
 
-            return !event.isCancelled();
+    /**
+     * 按优先级依次调用提供者, 位置按区块分组;
+     * 已被前面的提供者拒绝的位置不再交给后面的提供者(例如不再触发放置事件)
+     * @param nativeOnly 是否只使用原生提供者
+     */
+    private BitSet runProviders(Player player, List<Location> locations, Material material, BitSet allowed,
+            boolean nativeOnly) {
+        int[] order = orderByChunk(locations);
 
-        } catch (Exception e) {
-            plugin.getLogger().log(Level.WARNING, "事件检查失败", e);
+        for (ProtectionProvider provider : registry.getProviders()) {
+            if (allowed.isEmpty()) {
+                break;
+            }
+            if ((nativeOnly && !provider.isNative()) || !isEnabled(provider)) {
+                continue;
+            }
 
-            return true;
+            try {
+                provider.checkAll(player, locations, order, material, allowed);
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.WARNING, "保护检查失败: " + provider.getName(), e);
+            }
+        }
+
+        return allowed;
+    }
+
+    private boolean isEnabled(ProtectionProvider provider) {
+        if (provider == eventProvider) {
+            return useEventCheck;
+        }
+        if (provider == worldGuardHook) {
+            return useWorldGuard;
+        }
+        return true;
+    }
+
+    private static int[] orderByChunk(List<Location> locations) {
+        Map<Long, List<Integer>> chunks = new LinkedHashMap<>();
+        for (int i = 0; i < locations.size(); i++) {
+            Location loc = locations.get(i);
+            long chunkKey = ((long) (loc.getBlockX() >> 4) << 32) | ((loc.getBlockZ() >> 4) & 0xFFFFFFFFL);
+            chunks.computeIfAbsent(chunkKey, key -> new ArrayList<>()).add(i);
+        }
+
+        int[] order = new int[locations.size()];
+        int n = 0;
+        for (List<Integer> indices : chunks.values()) {
+            for (int index : indices) {
+                order[n++] = index;
+            }
         }
+        return order;
     }
 
     public Location[] filterAllowedLocations(Player player, Location[] locations, Material material) {
-        return java.util.Arrays.stream(locations)
-                .filter(loc -> canPlace(player, loc, material))
-                .toArray(Location[]::new);
+        BitSet allowed = canPlaceAll(player, java.util.Arrays.asList(locations), material, true);
+        return allowed.stream().mapToObj(i -> locations[i]).toArray(Location[]::new);
     }
 
     public void setUseEventCheck(boolean useEventCheck) {
@@ -116,6 +257,36 @@ public class ProtectionChecker {
         this.useWorldGuard = useWorldGuard && worldGuardHook != null;
     }
 
+    public void setUseCache(boolean useCache) {
+        this.useCache = useCache;
+        if (!useCache) {
+            cache.clear();
+        }
+    }
+
+    public void setCacheTtlSeconds(int seconds) {
+        cache.setTtlMillis(seconds * 1000L);
+    }
+
+    public void setBypassCacheOnPlace(boolean bypassCacheOnPlace) {
+        this.bypassCacheOnPlace = bypassCacheOnPlace;
+    }
+
+    public void setPreviewCheck(PreviewCheck previewCheck) {
+        this.previewCheck = previewCheck;
+    }
+
+    /**
+     * 保护提供者注册表, 可以在这里注册其他领地插件的原生提供者
+     */
+    public ProtectionProviderRegistry getRegistry() {
+        return registry;
+    }
+
+    public ProtectionCache getCache() {
+        return cache;
+    }
+
     public boolean isWorldGuardAvailable() {
         return worldGuardHook != null;
     }
@@ -0,0 +1,39 @@
+package org.little100.constructionWand.protection;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 保护检查提供者
+ * 每个提供者负责一种保护来源(领地插件原生 API、模拟事件等), 由 {@link ProtectionProviderRegistry}
+ * 按优先级依次调用, 已被前面的提供者拒绝的位置不会再交给后面的提供者
+ */
+public interface ProtectionProvider {
+
+    /**
+     * 提供者名称, 用于日志
+     */
+    String getName();
+
+    /**
+     * 优先级, 数值大的先执行; 代价低的原生查询应使用较高的优先级
+     */
+    int getPriority();
+
+    /**
+     * 是否是原生查询(不触发任何事件), 只有原生提供者会在预览阶段使用
+     */
+    default boolean isNative() {
+        return true;
+    }
+
+    /**
+     * 批量检查, 不允许的位置从 allowed 中清除
+     * @param order 检查顺序(按区块分组), 只需检查 allowed 中仍被设置的下标
+     */
+    void checkAll(Player player, List<Location> locations, int[] order, Material material, BitSet allowed);
+}
@@ -0,0 +1,43 @@
+package org.little100.constructionWand.protection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 保护提供者注册表
+ * 提供者按优先级从高到低排列, 其他代码可以在运行时注册自己的原生提供者
+ */
+public class ProtectionProviderRegistry {
+
+    // 每次修改都替换整个列表, 读取时无需加锁
+    private volatile List<ProtectionProvider> providers = Collections.emptyList();
+
+    /**
+     * 注册提供者, 同名的旧提供者会被替换
+     */
+    public synchronized void register(ProtectionProvider provider) {
+        List<ProtectionProvider> updated = new ArrayList<>(providers);
+        updated.removeIf(existing -> existing.getName().equalsIgnoreCase(provider.getName()));
+        updated.add(provider);
+        updated.sort(Comparator.comparingInt(ProtectionProvider::getPriority).reversed());
+        providers = Collections.unmodifiableList(updated);
+    }
+
+    public synchronized boolean unregister(String name) {
+        List<ProtectionProvider> updated = new ArrayList<>(providers);
+        boolean removed = updated.removeIf(provider -> provider.getName().equalsIgnoreCase(name));
+        if (removed) {
+            providers = Collections.unmodifiableList(updated);
+        }
+        return removed;
+    }
+
+    /**
+     * 按优先级排列的提供者(只读快照)
+     */
+    public List<ProtectionProvider> getProviders() {
+        return providers;
+    }
+}
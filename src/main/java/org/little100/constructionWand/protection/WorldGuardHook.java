@@ -1,65 +1,222 @@
 package org.little100.constructionWand.protection;
 
 import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 
-public class WorldGuardHook {
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * WorldGuard 适配器
+ * 所有类和方法在构造时一次性解析为 MethodHandle, 之后每次查询只是直接调用,
+ * 解析失败时构造函数抛出异常, 由调用方在启动时报告
+ */
+public class WorldGuardHook implements ProtectionProvider {
+
+    private final Logger logger;
+    private final Object regionContainer;
+    private final Object buildFlags;
+
+    private final MethodHandle createQuery;
+    private final MethodHandle adaptLocation;
+    private final MethodHandle adaptPlayer;
+    private final MethodHandle adaptWorld;
+    private final MethodHandle testState;
+    private final MethodHandle getRegionManager;
+    private final MethodHandle blockVectorAt;
+    private final MethodHandle getApplicableRegionIds;
+
+    private volatile boolean failureReported = false;
+
+    public WorldGuardHook(Logger logger) throws ReflectiveOperationException {
+        this.logger = logger;
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+        Class<?> worldGuardClass = Class.forName("com.sk89q.worldguard.WorldGuard");
+        Object worldGuard = worldGuardClass.getMethod("getInstance").invoke(null);
+        Object platform = worldGuardClass.getMethod("getPlatform").invoke(worldGuard);
+        regionContainer = platform.getClass().getMethod("getRegionContainer").invoke(platform);
+
+        Class<?> bukkitAdapterClass = Class.forName("com.sk89q.worldedit.bukkit.BukkitAdapter");
+        Class<?> weLocationClass = Class.forName("com.sk89q.worldedit.util.Location");
+        Class<?> weWorldClass = Class.forName("com.sk89q.worldedit.world.World");
+        Class<?> associableClass = Class.forName("com.sk89q.worldguard.protection.association.RegionAssociable");
+        Class<?> stateFlagClass = Class.forName("com.sk89q.worldguard.protection.flags.StateFlag");
+        Class<?> flagsClass = Class.forName("com.sk89q.worldguard.protection.flags.Flags");
+        Class<?> blockVectorClass = Class.forName("com.sk89q.worldedit.math.BlockVector3");
+        Class<?> regionManagerClass = Class.forName("com.sk89q.worldguard.protection.managers.RegionManager");
+        Class<?> regionContainerClass = Class.forName("com.sk89q.worldguard.protection.regions.RegionContainer");
+        Class<?> flagArrayClass = Array.newInstance(stateFlagClass, 0).getClass();
+
+        // 标志数组只创建一次, testState 不会修改它
+        buildFlags = Array.newInstance(stateFlagClass, 1);
+        Array.set(buildFlags, 0, flagsClass.getField("BUILD").get(null));
+
+        Method createQueryMethod = regionContainerClass.getMethod("createQuery");
+        Method getMethod = regionContainerClass.getMethod("get", weWorldClass);
+        Method testStateMethod = createQueryMethod.getReturnType().getMethod("testState",
+                weLocationClass, associableClass, flagArrayClass);
+
+        // 统一转换为 Object 签名, 以便使用 invokeExact
+        createQuery = lookup.unreflect(createQueryMethod).bindTo(regionContainer)
+                .asType(MethodType.methodType(Object.class));
+        getRegionManager = lookup.unreflect(getMethod).bindTo(regionContainer)
+                .asType(MethodType.methodType(Object.class, Object.class));
+        adaptLocation = lookup.unreflect(bukkitAdapterClass.getMethod("adapt", Location.class))
+                .asType(MethodType.methodType(Object.class, Location.class));
+        adaptPlayer = lookup.unreflect(bukkitAdapterClass.getMethod("adapt", Player.class))
+                .asType(MethodType.methodType(Object.class, Player.class));
+        adaptWorld = lookup.unreflect(bukkitAdapterClass.getMethod("adapt", World.class))
+                .asType(MethodType.methodType(Object.class, World.class));
+        testState = lookup.unreflect(testStateMethod)
+                .asType(MethodType.methodType(boolean.class, Object.class, Object.class, Object.class, Object.class));
+        blockVectorAt = lookup.unreflect(blockVectorClass.getMethod("at", int.class, int.class, int.class))
+                .asType(MethodType.methodType(Object.class, int.class, int.class, int.class));
+        getApplicableRegionIds = lookup.unreflect(regionManagerClass.getMethod("getApplicableRegionsIDs",
+                blockVectorClass))
+                .asType(MethodType.methodType(Object.class, Object.class, Object.class));
+    }
 
-    private Object worldGuard;
-    private boolean available = false;
+    @Override
+    public String getName() {
+        return "WorldGuard";
+    }
 
-    public WorldGuardHook() {
-        try {
+    @Override
+    public int getPriority() {
+        return 100;
+    }
 
-            Class<?> worldGuardClass = Class.forName("com.sk89q.worldguard.WorldGuard");
-            worldGuard = worldGuardClass.getMethod("getInstance").invoke(null);
-            available = true;
-        } catch (Exception e) {
-            available = false;
-        }
+    @Override
+    public void checkAll(Player player, List<Location> locations, int[] order, Material material, BitSet allowed) {
+        canBuildAll(player, locations, order, allowed);
     }
 
     public boolean canBuild(Player player, Location location) {
-        if (!available || worldGuard == null) {
+        try {
+            return newQuery(player).test(location);
+        } catch (Throwable t) {
+            reportFailure(t);
             return true;
         }
+    }
 
+    /**
+     * 批量检查建筑权限, 不允许的位置会从 allowed 中清除
+     * 整批共用一个 RegionQuery; 所在区域集合相同的位置结果必然相同, 只查询一次。
+     * 区域 ID 列表直接作为键(按内容比较), 每个世界一张结果表, 不为每个位置拼接字符串
+     * @param order 检查顺序(按区块分组)
+     */
+    public void canBuildAll(Player player, List<Location> locations, int[] order, BitSet allowed) {
         try {
+            BuildQuery query = newQuery(player);
+            Map<UUID, WorldResults> worlds = new HashMap<>();
+            World lastWorld = null;
+            WorldResults current = null;
+
+            for (int index : order) {
+                if (!allowed.get(index)) {
+                    continue;
+                }
+
+                Location location = locations.get(index);
+                World world = location.getWorld();
+
+                // 计划通常只在一个世界中, 世界不变时不查表
+                if (world != lastWorld) {
+                    lastWorld = world;
+                    current = worlds.get(world.getUID());
+                    if (current == null) {
+                        current = new WorldResults(
+                                (Object) getRegionManager.invokeExact((Object) adaptWorld.invokeExact(world)));
+                        worlds.put(world.getUID(), current);
+                    }
+                }
+
+                Object regionIds = null;
+                if (current.regionManager != null) {
+                    Object vector = (Object) blockVectorAt.invokeExact(
+                            location.getBlockX(), location.getBlockY(), location.getBlockZ());
+                    regionIds = (Object) getApplicableRegionIds.invokeExact(current.regionManager, vector);
+                }
+
+                Boolean result = regionIds != null ? current.results.get(regionIds) : null;
+                if (result == null) {
+                    result = query.test(location);
+                    if (regionIds != null) {
+                        current.results.put(regionIds, result);
+                    }
+                }
+
+                if (!result) {
+                    allowed.clear(index);
+                }
+            }
+        } catch (Throwable t) {
+            reportFailure(t);
+        }
+    }
 
-            Class<?> worldGuardClass = Class.forName("com.sk89q.worldguard.WorldGuard");
-            Object platform = worldGuardClass.getMethod("getPlatform").invoke(worldGuard);
-            Object regionContainer = platform.getClass().getMethod("getRegionContainer").invoke(platform);
-
-            Object query = regionContainer.getClass().getMethod("createQuery").invoke(regionContainer);
-
-            Class<?> bukkitAdapterClass = Class.forName("com.sk89q.worldedit.bukkit.BukkitAdapter");
-            Object weLocation = bukkitAdapterClass.getMethod("adapt", Location.class).invoke(null, location);
-
-            Object localPlayer = bukkitAdapterClass.getMethod("adapt", Player.class).invoke(null, player);
+    /**
+     * 一个世界的区域管理器和按区域 ID 列表缓存的结果
+     */
+    private static final class WorldResults {
+        private final Object regionManager;
+        private final Map<Object, Boolean> results = new HashMap<>();
 
-            Class<?> flagsClass = Class.forName("com.sk89q.worldguard.protection.flags.Flags");
-            Object buildFlag = flagsClass.getField("BUILD").get(null);
+        private WorldResults(Object regionManager) {
+            this.regionManager = regionManager;
+        }
+    }
 
-            Class<?> stateFlagClass = Class.forName("com.sk89q.worldguard.protection.flags.StateFlag");
-            java.lang.reflect.Method testStateMethod = query.getClass().getMethod(
-                    "testState",
-                    Class.forName("com.sk89q.worldedit.util.Location"),
-                    Class.forName("com.sk89q.worldguard.protection.association.RegionAssociable"),
-                    java.lang.reflect.Array.newInstance(stateFlagClass, 0).getClass());
+    /**
+     * 为玩家创建一个可复用的查询
+     */
+    public BuildQuery newQuery(Player player) throws Throwable {
+        return new BuildQuery((Object) createQuery.invokeExact(), (Object) adaptPlayer.invokeExact(player));
+    }
 
-            Object flagArray = java.lang.reflect.Array.newInstance(stateFlagClass, 1);
-            java.lang.reflect.Array.set(flagArray, 0, buildFlag);
+    /**
+     * 查询失败时默认允许, 只在第一次失败时记录日志
+     */
+    private void reportFailure(Throwable t) {
+        if (!failureReported) {
+            failureReported = true;
+            logger.log(Level.WARNING, "WorldGuard 查询失败, 将默认允许放置", t);
+        }
+    }
 
-            Object result = testStateMethod.invoke(query, weLocation, localPlayer, flagArray);
-            return (Boolean) result;
+    public boolean isAvailable() {
+        return true;
+    }
 
-        } catch (Exception e) {
+    /**
+     * 绑定了玩家的 RegionQuery
+     */
+    public final class BuildQuery {
+        private final Object query;
+        private final Object localPlayer;
 
-            return true;
+        private BuildQuery(Object query, Object localPlayer) {
+            this.query = query;
+            this.localPlayer = localPlayer;
         }
-    }
 
-    public boolean isAvailable() {
-        return available;
+        public boolean test(Location location) throws Throwable {
+            return (boolean) testState.invokeExact(query, (Object) adaptLocation.invokeExact(location), localPlayer,
+                    buildFlags);
+        }
     }
-}
\ No newline at end of file
+}
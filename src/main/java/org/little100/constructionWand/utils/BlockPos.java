@@ -0,0 +1,38 @@
+package org.little100.constructionWand.utils;
+
+/**
+ * 方块坐标压缩工具
+ * 将 x/y/z 压缩为一个 long(x 26 位, z 26 位, y 12 位), 布局与原版 BlockPos 一致
+ */
+public final class BlockPos {
+
+    private static final int BITS_XZ = 26;
+    private static final int BITS_Y = 12;
+    private static final long MASK_XZ = (1L << BITS_XZ) - 1;
+    private static final long MASK_Y = (1L << BITS_Y) - 1;
+    private static final int SHIFT_Z = BITS_Y;
+    private static final int SHIFT_X = BITS_Y + BITS_XZ;
+
+    private BlockPos() {
+    }
+
+    public static long pack(int x, int y, int z) {
+        return ((x & MASK_XZ) << SHIFT_X) | ((z & MASK_XZ) << SHIFT_Z) | (y & MASK_Y);
+    }
+
+    public static int unpackX(long packed) {
+        return (int) (packed >> SHIFT_X);
+    }
+
+    public static int unpackY(long packed) {
+        return (int) (packed << (64 - BITS_Y) >> (64 - BITS_Y));
+    }
+
+    public static int unpackZ(long packed) {
+        return (int) (packed << (64 - SHIFT_X) >> (64 - BITS_XZ));
+    }
+
+    public static long offset(long packed, int dx, int dy, int dz) {
+        return pack(unpackX(packed) + dx, unpackY(packed) + dy, unpackZ(packed) + dz);
+    }
+}
@@ -0,0 +1,136 @@
+package org.little100.constructionWand.utils;
+
+import java.util.Arrays;
+
+/**
+ * 基于开放寻址(线性探测)的 long 集合
+ * 不装箱, 用于规划过程中记录已访问的压缩坐标
+ */
+public final class LongHashSet {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] table;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+    private boolean containsEmptyKey;
+
+    public LongHashSet() {
+        this(64);
+    }
+
+    public LongHashSet(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    /**
+     * 添加元素
+     * @return 如果元素之前不存在返回 true
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsEmptyKey) {
+                return false;
+            }
+            containsEmptyKey = true;
+            size++;
+            return true;
+        }
+
+        int index = mix(value) & mask;
+        while (true) {
+            long current = table[index];
+            if (current == EMPTY) {
+                table[index] = value;
+                if (++size >= resizeThreshold) {
+                    rehash(table.length << 1);
+                }
+                return true;
+            }
+            if (current == value) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsEmptyKey;
+        }
+
+        int index = mix(value) & mask;
+        while (true) {
+            long current = table[index];
+            if (current == EMPTY) {
+                return false;
+            }
+            if (current == value) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        Arrays.fill(table, EMPTY);
+        size = 0;
+        containsEmptyKey = false;
+    }
+
+    /**
+     * 确保可以在不扩容的情况下容纳指定数量的元素
+     */
+    public void ensureCapacity(int expectedSize) {
+        int required = tableSizeFor(expectedSize);
+        if (required > table.length) {
+            rehash(required);
+        }
+    }
+
+    private void rehash(int newLength) {
+        long[] old = table;
+        allocate(newLength);
+        size = containsEmptyKey ? 1 : 0;
+        for (long value : old) {
+            if (value != EMPTY) {
+                int index = mix(value) & mask;
+                while (table[index] != EMPTY) {
+                    index = (index + 1) & mask;
+                }
+                table[index] = value;
+                size++;
+            }
+        }
+    }
+
+    private void allocate(int length) {
+        table = new long[length];
+        Arrays.fill(table, EMPTY);
+        mask = length - 1;
+        resizeThreshold = (int) (length * LOAD_FACTOR);
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int required = (int) Math.ceil(Math.max(expectedSize, 4) / LOAD_FACTOR);
+        return Integer.highestOneBit(required - 1) << 1;
+    }
+
+    private static int mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,99 @@
+package org.little100.constructionWand.utils;
+
+import org.bukkit.Material;
+import org.little100.constructionWand.wand.WandType;
+
+/**
+ * 材质分类表
+ * 启动时按 Material.ordinal() 预先计算每种材质的分类标志, 热路径上的判断只是一次数组读取和位运算,
+ * 不再在每个方块上做名称字符串匹配
+ */
+public final class MaterialTable {
+
+    private static final byte REPLACEABLE = 1;
+    private static final byte FLUID = 1 << 1;
+    private static final byte PLACEABLE = 1 << 2;
+    private static final byte WAND_BASE = 1 << 3;
+
+    private static final byte[] FLAGS = build();
+
+    private MaterialTable() {
+    }
+
+    /**
+     * 在启动时调用以提前构建分类表
+     */
+    public static void init() {
+        // 类加载时已经构建
+    }
+
+    private static byte[] build() {
+        Material[] materials = Material.values();
+        byte[] flags = new byte[materials.length];
+
+        for (Material material : materials) {
+            String name = material.name();
+            if (name.startsWith("LEGACY_")) {
+                continue;
+            }
+
+            byte flag = 0;
+            try {
+                boolean block = material.isBlock();
+                boolean air = material.isAir();
+                boolean solid = block && material.isSolid();
+
+                // 流体: 水和岩浆本身(包括旧版的 STATIONARY_*), 排除炼药锅等含有相同名称的固体方块
+                if (block && !solid && (name.contains("WATER") || name.contains("LAVA"))) {
+                    flag |= FLUID;
+                }
+                if (air || (flag & FLUID) != 0) {
+                    flag |= REPLACEABLE;
+                }
+                if (block && solid && !air) {
+                    flag |= PLACEABLE;
+                }
+            } catch (Throwable t) {
+                flag = 0;
+            }
+            flags[material.ordinal()] = flag;
+        }
+
+        for (WandType type : WandType.values()) {
+            if (type.getBaseMaterial() != null) {
+                flags[type.getBaseMaterial().ordinal()] |= WAND_BASE;
+            }
+        }
+
+        return flags;
+    }
+
+    private static boolean has(Material material, byte flag) {
+        return material != null && (FLAGS[material.ordinal()] & flag) != 0;
+    }
+
+    /**
+     * 是否可以被替换(空气或流体)
+     */
+    public static boolean isReplaceable(Material material) {
+        return has(material, REPLACEABLE);
+    }
+
+    public static boolean isFluid(Material material) {
+        return has(material, FLUID);
+    }
+
+    /**
+     * 是否可以作为手杖放置的方块(实心方块)
+     */
+    public static boolean isPlaceable(Material material) {
+        return has(material, PLACEABLE);
+    }
+
+    /**
+     * 是否是某种手杖的基础材质
+     */
+    public static boolean isWandBaseMaterial(Material material) {
+        return has(material, WAND_BASE);
+    }
+}
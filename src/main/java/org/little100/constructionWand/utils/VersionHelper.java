@@ -2,6 +2,8 @@ package org.little100.constructionWand.utils;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.entity.Entity;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
@@ -16,6 +18,9 @@ public class VersionHelper {
     private static Boolean isFolia = null;
     private static int[] serverVersion = null;
     private static Boolean supportsNewCustomModelData = null;
+    private static Boolean supportsRegionAccessor = null;
+    private static Method isOwnedByCurrentRegion = null;
+    private static boolean isOwnedByCurrentRegionResolved = false;
 
     public static boolean isFolia() {
         if (isFolia == null) {
@@ -67,6 +72,57 @@ public class VersionHelper {
         return supportsNewCustomModelData;
     }
 
+    /**
+     * 检查 World 是否支持按坐标直接读取方块类型(1.17+ RegionAccessor)
+     */
+    public static boolean supportsRegionAccessor() {
+        if (supportsRegionAccessor == null) {
+            try {
+                World.class.getMethod("getType", int.class, int.class, int.class);
+                supportsRegionAccessor = true;
+            } catch (NoSuchMethodException e) {
+                supportsRegionAccessor = false;
+            }
+        }
+        return supportsRegionAccessor;
+    }
+
+    /**
+     * 当前线程是否拥有指定区块; 非 Folia 服务器总是返回 true
+     */
+    public static boolean isOwnedByCurrentRegion(World world, int chunkX, int chunkZ) {
+        if (!isFolia()) {
+            return true;
+        }
+        if (!isOwnedByCurrentRegionResolved) {
+            try {
+                isOwnedByCurrentRegion = Bukkit.class.getMethod("isOwnedByCurrentRegion",
+                        World.class, int.class, int.class);
+            } catch (NoSuchMethodException e) {
+                isOwnedByCurrentRegion = null;
+            }
+            isOwnedByCurrentRegionResolved = true;
+        }
+        if (isOwnedByCurrentRegion == null) {
+            return true;
+        }
+        try {
+            return (Boolean) isOwnedByCurrentRegion.invoke(null, world, chunkX, chunkZ);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * 读取指定坐标的方块类型, 新版本上不会创建 Block 对象
+     */
+    public static Material getBlockType(World world, int x, int y, int z) {
+        if (supportsRegionAccessor()) {
+            return world.getType(x, y, z);
+        }
+        return world.getBlockAt(x, y, z).getType();
+    }
+
     private static Boolean supportsNewCustomModelDataApi = null;
 
     public static boolean supportsNewCustomModelDataComponent() {
@@ -12,6 +12,7 @@ import org.bukkit.persistence.PersistentDataContainer;
 import org.bukkit.persistence.PersistentDataType;
 import org.bukkit.plugin.Plugin;
 import org.little100.constructionWand.i18n.I18nManager;
+import org.little100.constructionWand.utils.MaterialTable;
 import org.little100.constructionWand.utils.VersionHelper;
 
 import java.util.ArrayList;
@@ -209,6 +210,11 @@ public class WandItemManager {
             return true;
         }
 
+        // 只有基础材质才可能通过模型数据识别
+        if (!MaterialTable.isWandBaseMaterial(item.getType())) {
+            return false;
+        }
+
         int modelData = getCustomModelDataFromItem(item);
         return WandType.fromMaterialAndModelData(item.getType(), modelData) != null;
     }
@@ -227,6 +233,10 @@ public class WandItemManager {
             return WandType.fromId(typeId);
         }
 
+        if (!MaterialTable.isWandBaseMaterial(item.getType())) {
+            return null;
+        }
+
         int modelData = getCustomModelDataFromItem(item);
         return WandType.fromMaterialAndModelData(item.getType(), modelData);
     }